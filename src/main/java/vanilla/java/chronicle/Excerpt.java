@@ -40,6 +40,14 @@ public interface Excerpt<C extends Chronicle> extends RandomDataInput, RandomDat
      */
     boolean index(long index) throws IndexOutOfBoundsException;
 
+    /**
+     * Attempt to move to the excerpt after the current one, or the first excerpt if the index has never been set. Like
+     * index(long) this is re-tryable and doesn't change the index if it returns false.
+     *
+     * @return true if the next excerpt is available.
+     */
+    boolean nextIndex();
+
     /**
      * @return the index of a valid entry or -1 if the index has never been set.
      */
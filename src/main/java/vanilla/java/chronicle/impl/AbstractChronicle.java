@@ -35,4 +35,34 @@ public abstract class AbstractChronicle implements DirectChronicle {
     public long size() {
         return size;
     }
+
+    @Override
+    public long writeIndex() {
+        return size();
+    }
+
+    @Override
+    public boolean unpublished(long index) {
+        return false;
+    }
+
+    @Override
+    public long nextIndex(long index) {
+        return index + 1;
+    }
+
+    @Override
+    public boolean checksums() {
+        return false;
+    }
+
+    @Override
+    public boolean verifyChecksums() {
+        return false;
+    }
+
+    @Override
+    public int excerptHeaderSize() {
+        return 0;
+    }
 }
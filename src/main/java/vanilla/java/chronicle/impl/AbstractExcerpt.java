@@ -33,7 +33,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C> {
     protected final DirectChronicle chronicle;
-    protected long index;
+    protected long index = -1;
     protected long start = 0;
     protected long position = 0;
     protected int capacity = 0;
@@ -44,6 +44,7 @@ public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C>
     protected ByteBuffer buffer;
     private boolean forWrite = false;
 
+    static final int CHECKSUM_SIZE = 4;
     private static final byte[] MIN_VALUE_TEXT = ("" + Long.MIN_VALUE).getBytes();
     private static final byte[] Infinity = "Infinity".getBytes();
     private static final byte[] NaN = "NaN".getBytes();
@@ -64,20 +65,39 @@ public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C>
     public boolean index(long index) throws IndexOutOfBoundsException {
         readMemoryBarrier();
         long endPosition = chronicle.getIndexData(index + 1);
-        if (endPosition == 0) {
+        // zero is not written yet, negative is CLAIMED or PENDING.
+        if (endPosition <= 0 || chronicle.unpublished(index)) {
             capacity = 0;
             buffer = null;
             return false;
         }
-        long startPosition = chronicle.getIndexData(index);
+        long startPosition = (chronicle.getIndexData(index) & ~DirectChronicle.PENDING) + chronicle.excerptHeaderSize();
+        return index(index, startPosition, endPosition);
+    }
+
+    /**
+     * Read an excerpt whose position in the data is already known.
+     */
+    boolean index(long index, long startPosition, long endPosition) {
         capacity = (int) (endPosition - startPosition);
         index0(index, startPosition, endPosition);
         forWrite = false;
+        if (chronicle.checksums()) {
+            capacity -= CHECKSUM_SIZE;
+            limit -= CHECKSUM_SIZE;
+            if (chronicle.verifyChecksums() && !checksumValid())
+                throw new IllegalStateException("Checksum failed for excerpt " + index + " of " + chronicle.name());
+        }
         // TODO Assumes the start of the record won't be all 0's
         // TODO Need to determine whether this is required as a safety check or not.
         return readLong(0) != 0L;
     }
 
+    @Override
+    public boolean nextIndex() {
+        return index(chronicle.nextIndex(index));
+    }
+
     private boolean readMemoryBarrier() {
         return barrier.get();
     }
@@ -85,9 +105,20 @@ public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C>
     @Override
     public void startExcerpt(int capacity) {
         this.capacity = capacity;
-        long startPosition = chronicle.startExcerpt(capacity);
-        long endPosition = startPosition + capacity;
-        index0(chronicle.size(), startPosition, endPosition);
+        boolean checksums = chronicle.checksums();
+        int reserved = checksums ? capacity + CHECKSUM_SIZE : capacity;
+        if (chronicle.multiWriter()) {
+            long index = chronicle.reserveExcerpt(reserved);
+            long startPosition = chronicle.getIndexData(index) & ~DirectChronicle.PENDING;
+            index0(index, startPosition, startPosition + reserved);
+        } else {
+            long startPosition = chronicle.startExcerpt(reserved);
+            long endPosition = startPosition + reserved;
+            index0(chronicle.writeIndex(), startPosition, endPosition);
+        }
+        // the checksum is added by finish()
+        if (checksums)
+            limit -= CHECKSUM_SIZE;
         forWrite = true;
     }
 
@@ -95,8 +126,19 @@ public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C>
     public void finish() {
         if (position > limit)
             throw new IllegalStateException("Capacity allowed: " + capacity + " data read/written: " + (position - start));
-        if (forWrite) {
-            final long endPosition = startPosition + (position - start);
+        if (forWrite && chronicle.multiWriter()) {
+            // the next excerpt may already start at the reserved end, so it cannot be shrink wrapped.
+            if (chronicle.checksums())
+                writeChecksum(capacity);
+            chronicle.publishExcerpt(index);
+            forWrite = false;
+        } else if (forWrite) {
+            int length = (int) (position - start);
+            if (chronicle.checksums()) {
+                writeChecksum(length);
+                length += CHECKSUM_SIZE;
+            }
+            final long endPosition = startPosition + length;
             chronicle.setIndexData(index + 1, endPosition);
             chronicle.incrSize();
             capacity = (int) (position - start);
@@ -106,6 +148,39 @@ public abstract class AbstractExcerpt<C extends Chronicle> implements Excerpt<C>
 
     protected abstract void index0(long index, long startPosition, long endPosition);
 
+    /**
+     * @return whether the excerpt matches the checksum at its end. Always true if the Chronicle doesn't have checksums.
+     */
+    public boolean checksumValid() {
+        return !chronicle.checksums() || checksum(capacity + CHECKSUM_SIZE) == 0;
+    }
+
+    /**
+     * The checksum is the CRC-32C register after the excerpt, without the final inversion, so the CRC of the excerpt
+     * with the checksum is 0.  This stays 0 if the excerpt is later padded with zeros to the end of a data buffer.
+     */
+    private void writeChecksum(int length) {
+        int crc = checksum(length);
+        // stored little endian a byte at a time as it can straddle buffers.
+        for (int i = 0; i < CHECKSUM_SIZE; i++) {
+            long position = startPosition + length + i;
+            chronicle.acquireDataBuffer(position).put(chronicle.positionInBuffer(position), (byte) (crc >>> (i * 8)));
+        }
+    }
+
+    private int checksum(int length) {
+        int crc = ~0;
+        long position = startPosition, end = startPosition + length;
+        while (position < end) {
+            ByteBuffer buffer = chronicle.acquireDataBuffer(position);
+            int offset = chronicle.positionInBuffer(position);
+            int len = (int) Math.min(end - position, buffer.capacity() - offset);
+            crc = Crc32c.update(crc, buffer, offset, len);
+            position += len;
+        }
+        return crc;
+    }
+
     final AtomicBoolean barrier = new AtomicBoolean();
 
     private void writeMemoryBarrier() {
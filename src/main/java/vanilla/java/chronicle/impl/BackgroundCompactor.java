@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compresses the cycles of a RollingChronicle once they are no longer written, so the writer doesn't have to.
+ *
+ * @author peter.lawrey
+ */
+class BackgroundCompactor implements Runnable {
+    private final RollingChronicle chronicle;
+    private final long periodMillis;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    BackgroundCompactor(RollingChronicle chronicle, long periodMillis) {
+        this.chronicle = chronicle;
+        this.periodMillis = periodMillis;
+        thread = new Thread(this, chronicle.name() + "-compactor");
+        thread.setDaemon(true);
+        // compressing is not latency sensitive.
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    long periodMillis() {
+        return periodMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                chronicle.compactCycles();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(periodMillis));
+            }
+        } catch (RuntimeException e) {
+            if (!closed)
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, chronicle.name() + " compactor dying", e);
+        }
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maps and touches the next data and index buffers of a Chronicle ahead of the writer so it doesn't have to.
+ *
+ * @author peter.lawrey
+ */
+class BackgroundMapper implements Runnable {
+    private static final long POLL_NS = 100 * 1000;
+
+    private final IndexedChronicle chronicle;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    BackgroundMapper(IndexedChronicle chronicle) {
+        this.chronicle = chronicle;
+        thread = new Thread(this, chronicle.name() + "-mapper");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                chronicle.mapAhead();
+                LockSupport.parkNanos(POLL_NS);
+            }
+        } catch (RuntimeException e) {
+            if (!closed)
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, chronicle.name() + " mapper dying", e);
+        }
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
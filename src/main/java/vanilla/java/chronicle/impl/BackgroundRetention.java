@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes old cycles of a RollingChronicle when the writer starts a new cycle, so the writer doesn't have to.
+ *
+ * @author peter.lawrey
+ */
+class BackgroundRetention implements Runnable {
+    private final RollingChronicle chronicle;
+    private final Thread thread;
+    private volatile boolean requested = false;
+    private volatile boolean closed = false;
+
+    BackgroundRetention(RollingChronicle chronicle) {
+        this.chronicle = chronicle;
+        thread = new Thread(this, chronicle.name() + "-retention");
+        thread.setDaemon(true);
+        // deleting files is not latency sensitive.
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void request() {
+        requested = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                if (requested) {
+                    requested = false;
+                    chronicle.applyRetention();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (RuntimeException e) {
+            if (!closed)
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, chronicle.name() + " retention dying", e);
+        }
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
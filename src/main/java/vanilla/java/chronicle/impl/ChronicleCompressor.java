@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Replaces the .data of an IndexedChronicle which is no longer written with a .cdata of compressed blocks, to be read
+ * with a CompressedChronicle.
+ *
+ * @author peter.lawrey
+ */
+public enum ChronicleCompressor {
+    ;
+    /**
+     * The size of the data compressed together, unless an excerpt is larger.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Compress the data of an IndexedChronicle and delete its .data and .header.  It must not be open in this or any
+     * other process.  Only an index of a long per excerpt is supported, the header of an IntIndexedChronicle or
+     * DeltaIndexedChronicle records its index format so it is rejected.
+     *
+     * @return the size of the .cdata file.
+     */
+    public static long compress(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
+        return compress(basePath, dataBitSizeHint, byteOrder, false);
+    }
+
+    /**
+     * As compress() but if the Chronicle is open in this or another process, or has excerpts which span buffers, it
+     * is left as it is.
+     *
+     * @return the size of the .cdata file, or -1 if it couldn't be compressed.
+     */
+    public static long compressIfPossible(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
+        return compress(basePath, dataBitSizeHint, byteOrder, true);
+    }
+
+    private static long compress(String basePath, int dataBitSizeHint, ByteOrder byteOrder, boolean ifPossible) throws IOException {
+        File cdata = new File(basePath + ".cdata");
+        // a previous compress could have stopped before deleting the .data.
+        if (!cdata.exists() && !compress0(basePath, dataBitSizeHint, byteOrder, cdata, ifPossible))
+            return -1;
+        new File(basePath + ".data").delete();
+        new File(basePath + ".header").delete();
+        return cdata.length();
+    }
+
+    /**
+     * @return false if ifPossible and the Chronicle couldn't be compressed.
+     */
+    private static boolean compress0(String basePath, int dataBitSizeHint, ByteOrder byteOrder, File cdata,
+                                     boolean ifPossible) throws IOException {
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, dataBitSizeHint, byteOrder);
+        File tmp = new File(basePath + ".cdata.tmp");
+        try {
+            if (!chronicle.exclusive()) {
+                if (ifPossible)
+                    return false;
+                throw new IllegalStateException(basePath + " is open and could be written to.");
+            }
+            if (chronicle.spanBuffers()) {
+                if (ifPossible)
+                    return false;
+                throw new IllegalStateException(basePath + " has excerpts which span buffers.");
+            }
+            long size = chronicle.size();
+
+            // cut the data into blocks between excerpts.
+            long[] dataPositions = new long[16];
+            int blocks = 0;
+            for (long i = 1; i <= size; i++) {
+                long endPosition = chronicle.getIndexData(i);
+                if (endPosition - dataPositions[blocks] >= BLOCK_SIZE || i == size) {
+                    if (++blocks >= dataPositions.length)
+                        dataPositions = Arrays.copyOf(dataPositions, dataPositions.length * 2);
+                    dataPositions[blocks] = endPosition;
+                }
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                raf.setLength(0);
+                FileChannel channel = raf.getChannel();
+                long[] filePositions = new long[blocks + 1];
+                long position = filePositions[0] = CompressedChronicle.HEADER_SIZE + (blocks + 1) * 16;
+                byte[] src = new byte[0], dst = new byte[0];
+                for (int b = 0; b < blocks; b++) {
+                    int length = (int) (dataPositions[b + 1] - dataPositions[b]);
+                    if (src.length < length) {
+                        src = new byte[length];
+                        dst = new byte[Lz.maxCompressedLength(length)];
+                    }
+                    readData(chronicle, dataPositions[b], src, length);
+                    int compressedLength = Lz.compress(src, 0, length, dst, 0);
+                    writeFully(channel, ByteBuffer.wrap(dst, 0, compressedLength), position);
+                    position = filePositions[b + 1] = position + compressedLength;
+                }
+
+                ByteBuffer header = ByteBuffer.allocate((int) filePositions[0]).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(CompressedChronicle.MAGIC);
+                header.putInt((chronicle.checksums() ? CompressedChronicle.CHECKSUMS : 0)
+                        | (byteOrder == ByteOrder.BIG_ENDIAN ? CompressedChronicle.BIG_ENDIAN_INDEX : 0));
+                header.putInt(blocks);
+                header.putLong(size);
+                header.putInt(CompressedChronicle.LONG_INDEX);
+                header.putInt(chronicle.indexBufferBitSize());
+                for (int i = 0; i <= blocks; i++)
+                    header.putLong(dataPositions[i]);
+                for (int i = 0; i <= blocks; i++)
+                    header.putLong(filePositions[i]);
+                header.flip();
+                writeFully(channel, header, 0);
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            chronicle.close();
+        }
+        if (!tmp.renameTo(cdata))
+            throw new IOException("Unable to rename " + tmp + " to " + cdata);
+        return true;
+    }
+
+    private static void readData(IndexedChronicle chronicle, long position, byte[] bytes, int length) {
+        for (int offset = 0; offset < length; ) {
+            ByteBuffer buffer = chronicle.acquireDataBuffer(position + offset).duplicate();
+            int start = chronicle.positionInBuffer(position + offset);
+            int len = Math.min(length - offset, buffer.capacity() - start);
+            buffer.position(start);
+            buffer.get(bytes, offset, len);
+            offset += len;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while (bb.remaining() > 0)
+            position += channel.write(bb, position);
+    }
+}
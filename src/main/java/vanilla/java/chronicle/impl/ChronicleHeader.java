@@ -0,0 +1,431 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small memory mapped file shared by every process which has the Chronicle open.
+ * <p/>
+ * The counters are updated with CAS so any number of threads and processes can append concurrently. Each counter is
+ * in its own cache line to avoid false sharing.
+ * <p/>
+ * While the header is open, a shared lock is held on it so the next process to open it can tell whether it is the
+ * only one using the Chronicle.  Opening is serialised with an exclusive lock held until initialised() is called, so a
+ * Chronicle which finds itself exclusive can recover the files before anyone else uses them.
+ *
+ * @author peter.lawrey
+ */
+class ChronicleHeader implements Closeable {
+    static final int HEADER_SIZE = 4096;
+    private static final long MAGIC = 0x31524448524E4843L; // "CHNRHDR1" in little endian.
+
+    /**
+     * Excerpts may span data buffers.
+     */
+    static final int SPAN_BUFFERS = 1;
+    static final int CHECKSUMS = 2;
+    static final int TIMESTAMPS = 4;
+    /**
+     * The index is not a long per excerpt, unset for an IndexedChronicle.
+     */
+    static final int INT_INDEX = 8;
+    static final int DELTA_INDEX = 16;
+    static final int INDEX_FORMATS = INT_INDEX | DELTA_INDEX;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 8;
+    private static final int RECORD_SIZE_OFFSET = 16;
+    private static final int NEXT_INDEX_OFFSET = 64;
+    private static final int WRITE_POSITION_OFFSET = 128;
+    private static final int SLEEPERS_OFFSET = 192;
+    /**
+     * The loopback UDP ports of readers which can be woken, one int per slot.
+     */
+    private static final int WAITERS_OFFSET = 256;
+    static final int MAX_WAITERS = 64;
+    /**
+     * The time in milliseconds until which the reader in each slot is asleep, one long per slot, or 0 if it is awake.
+     */
+    private static final int SLEEP_UNTIL_OFFSET = WAITERS_OFFSET + MAX_WAITERS * 4;
+    private static final int PUBLISHED_OFFSET = SLEEP_UNTIL_OFFSET + MAX_WAITERS * 8;
+    /**
+     * One more than the index of the first excerpt of a batch which hasn't been published, or 0 if there is none.
+     */
+    private static final int BATCH_START_OFFSET = PUBLISHED_OFFSET + 64;
+    // the byte locked while a process has the header open.
+    private static final int LOCK_OFFSET = HEADER_SIZE - 1;
+    // the byte locked while a Chronicle is being opened.
+    private static final int INIT_LOCK_OFFSET = HEADER_SIZE - 2;
+    // file locks are per process, so headers open more than once in this process share a lock.
+    private static final Map<String, ProcessLock> LOCKS = new HashMap<String, ProcessLock>();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final boolean created;
+    private final String lockKey;
+    private final boolean exclusive;
+    private FileLock initLock;
+
+    /**
+     * Opens the header holding the lock which serialises opening the Chronicle.  initialised() must be called once the
+     * Chronicle is ready to be used by others.
+     */
+    ChronicleHeader(String fileName) throws IOException {
+        lockKey = new File(fileName).getCanonicalPath();
+        channel = new RandomAccessFile(fileName, "rw").getChannel();
+        boolean locked = false;
+        MappedByteBuffer buffer = null;
+        try {
+            initLock = lockInit(channel);
+            exclusive = acquireLock(lockKey);
+            locked = true;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        } finally {
+            if (buffer == null) {
+                // closing the channel releases the init lock.
+                channel.close();
+                if (locked)
+                    releaseLock(lockKey);
+            }
+        }
+        this.buffer = buffer;
+        buffer.order(ByteOrder.nativeOrder());
+        address = ((DirectBuffer) buffer).address();
+        // the first process to open the header initialises it.
+        created = UNSAFE.compareAndSwapLong(null, address + MAGIC_OFFSET, 0L, MAGIC);
+        if (!created && UNSAFE.getLongVolatile(null, address + MAGIC_OFFSET) != MAGIC) {
+            close();
+            throw new IOException(fileName + " is not a chronicle header.");
+        }
+    }
+
+    /**
+     * Wait for any other thread or process opening the Chronicle to finish.
+     */
+    private static FileLock lockInit(FileChannel channel) throws IOException {
+        while (true) {
+            try {
+                return channel.lock(INIT_LOCK_OFFSET, 1, false);
+            } catch (OverlappingFileLockException e) {
+                // another thread in this process is opening the Chronicle.
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Let other threads and processes open the Chronicle, once it has been recovered if this is exclusive.
+     */
+    void initialised() {
+        if (initLock == null)
+            return;
+        try {
+            initLock.release();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            initLock = null;
+        }
+    }
+
+    /**
+     * @return true if this header was created when opened, i.e. its counters have never been set.
+     */
+    boolean created() {
+        return created;
+    }
+
+    /**
+     * @return true if no other process, or other Chronicle in this process, had the header open when this one opened it.
+     *         If so, nothing else can be writing to the Chronicle.
+     */
+    boolean exclusive() {
+        return exclusive;
+    }
+
+    /**
+     * Hold a shared lock while the header is open.  Only called holding the init lock, so no other process can be
+     * checking for the exclusive lock at the same time.
+     *
+     * @return whether no other process had the header open.
+     */
+    private static boolean acquireLock(String lockKey) throws IOException {
+        synchronized (LOCKS) {
+            ProcessLock lock = LOCKS.get(lockKey);
+            if (lock != null) {
+                lock.count++;
+                return false;
+            }
+            FileChannel lockChannel = new RandomAccessFile(lockKey, "rw").getChannel();
+            try {
+                FileLock exclusiveLock = lockChannel.tryLock(LOCK_OFFSET, 1, false);
+                if (exclusiveLock != null)
+                    exclusiveLock.release();
+                LOCKS.put(lockKey, new ProcessLock(lockChannel, lockChannel.lock(LOCK_OFFSET, 1, true)));
+                return exclusiveLock != null;
+            } catch (IOException e) {
+                lockChannel.close();
+                throw e;
+            }
+        }
+    }
+
+    private static void releaseLock(String lockKey) {
+        synchronized (LOCKS) {
+            ProcessLock lock = LOCKS.get(lockKey);
+            if (lock == null || --lock.count > 0)
+                return;
+            LOCKS.remove(lockKey);
+            try {
+                // closing the channel releases the lock.
+                lock.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the flags describing the format of the Chronicle.
+     */
+    int flags() {
+        return UNSAFE.getIntVolatile(null, address + FLAGS_OFFSET);
+    }
+
+    void setFlags(int flags) {
+        int current;
+        do {
+            current = flags();
+        } while (!UNSAFE.compareAndSwapInt(null, address + FLAGS_OFFSET, current, current | flags));
+    }
+
+    /**
+     * @return the size of every excerpt for a Chronicle of fixed size records, or 0 if not set.
+     */
+    int recordSize() {
+        return UNSAFE.getIntVolatile(null, address + RECORD_SIZE_OFFSET);
+    }
+
+    /**
+     * Set the record size if it hasn't been set.
+     *
+     * @return the record size, which can have been set already.
+     */
+    int recordSize(int recordSize) {
+        UNSAFE.compareAndSwapInt(null, address + RECORD_SIZE_OFFSET, 0, recordSize);
+        return recordSize();
+    }
+
+    /**
+     * @return the next index a writer can attempt to reserve.
+     */
+    long nextIndex() {
+        return UNSAFE.getLongVolatile(null, address + NEXT_INDEX_OFFSET);
+    }
+
+    /**
+     * Move the next index forward, unless another writer has already moved it further.
+     */
+    void advanceNextIndex(long nextIndex) {
+        advance(address + NEXT_INDEX_OFFSET, nextIndex);
+    }
+
+    /**
+     * @return the end of the last excerpt reserved.
+     */
+    long writePosition() {
+        return UNSAFE.getLongVolatile(null, address + WRITE_POSITION_OFFSET);
+    }
+
+    void advanceWritePosition(long writePosition) {
+        advance(address + WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * Record the size and write position after an excerpt is finished by a single writer. This is an ordered write so
+     * it is cheap enough to do for every excerpt.
+     */
+    void commit(long size, long writePosition) {
+        UNSAFE.putOrderedLong(null, address + WRITE_POSITION_OFFSET, writePosition);
+        UNSAFE.putOrderedLong(null, address + NEXT_INDEX_OFFSET, size);
+    }
+
+    /**
+     * Record the size after an excerpt is finished by a single writer when there is no write position.
+     */
+    void commit(long size) {
+        UNSAFE.putOrderedLong(null, address + NEXT_INDEX_OFFSET, size);
+    }
+
+    /**
+     * Set the counters unconditionally. Used when the Chronicle is opened or cleared.
+     */
+    void reset(long nextIndex, long writePosition) {
+        UNSAFE.putLongVolatile(null, address + NEXT_INDEX_OFFSET, nextIndex);
+        UNSAFE.putLongVolatile(null, address + WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * @return the number of times writers have published excerpts.
+     */
+    long published() {
+        return UNSAFE.getLongVolatile(null, address + PUBLISHED_OFFSET);
+    }
+
+    /**
+     * @return the index of the first excerpt of a batch which hasn't been published, or -1 if there is none.
+     */
+    long batchStart() {
+        return UNSAFE.getLongVolatile(null, address + BATCH_START_OFFSET) - 1;
+    }
+
+    void batchStart(long batchStart) {
+        UNSAFE.putLongVolatile(null, address + BATCH_START_OFFSET, batchStart + 1);
+    }
+
+    void clearBatchStart() {
+        UNSAFE.putOrderedLong(null, address + BATCH_START_OFFSET, 0L);
+    }
+
+    /**
+     * Count excerpts being published. This is a CAS, so it is also a full fence between publishing the excerpts and a
+     * writer reading sleepers() to see if it needs to wake readers.
+     */
+    void incrPublished() {
+        long current;
+        do {
+            current = published();
+        } while (!UNSAFE.compareAndSwapLong(null, address + PUBLISHED_OFFSET, current, current + 1));
+    }
+
+    /**
+     * @return the number of readers waiting to be woken when an excerpt is finished.
+     */
+    int sleepers() {
+        return UNSAFE.getIntVolatile(null, address + SLEEPERS_OFFSET);
+    }
+
+    void addSleepers(int delta) {
+        int current;
+        do {
+            current = sleepers();
+        } while (!UNSAFE.compareAndSwapInt(null, address + SLEEPERS_OFFSET, current, current + delta));
+    }
+
+    /**
+     * @return the port of a waiting reader or 0 if the slot is free.
+     */
+    int waiterPort(int slot) {
+        return UNSAFE.getIntVolatile(null, address + WAITERS_OFFSET + slot * 4);
+    }
+
+    /**
+     * @return the slot the port was added to, or -1 if there are no free slots.
+     */
+    int addWaiter(int port) {
+        for (int slot = 0; slot < MAX_WAITERS; slot++)
+            if (UNSAFE.compareAndSwapInt(null, address + WAITERS_OFFSET + slot * 4, 0, port))
+                return slot;
+        return -1;
+    }
+
+    void removeWaiter(int slot) {
+        sleepUntil(slot, 0);
+        UNSAFE.putIntVolatile(null, address + WAITERS_OFFSET + slot * 4, 0);
+    }
+
+    /**
+     * @return the time in milliseconds until which the reader in a slot is asleep, or 0 if it is awake.
+     */
+    long sleepUntil(int slot) {
+        return UNSAFE.getLongVolatile(null, address + SLEEP_UNTIL_OFFSET + slot * 8);
+    }
+
+    void sleepUntil(int slot, long timeMillis) {
+        UNSAFE.putLongVolatile(null, address + SLEEP_UNTIL_OFFSET + slot * 8, timeMillis);
+    }
+
+    /**
+     * Forget the waiters left by processes which died. Only safe when no other process has the header open.
+     */
+    void clearWaiters() {
+        for (int slot = 0; slot < MAX_WAITERS; slot++)
+            removeWaiter(slot);
+        UNSAFE.putIntVolatile(null, address + SLEEPERS_OFFSET, 0);
+    }
+
+    private static void advance(long address, long value) {
+        long current;
+        while ((current = UNSAFE.getLongVolatile(null, address)) < value
+                && !UNSAFE.compareAndSwapLong(null, address, current, value)) ;
+    }
+
+    public void close() {
+        try {
+            initialised();
+            buffer.force();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            ((DirectBuffer) buffer).cleaner().clean();
+            releaseLock(lockKey);
+        }
+    }
+
+    static class ProcessLock {
+        final FileChannel channel;
+        final FileLock lock;
+        int count = 1;
+
+        ProcessLock(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * *** Access the Unsafe class *****
+     */
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = (Unsafe) theUnsafe.get(null);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read only Chronicle whose data has been compressed by ChronicleCompressor, for keeping old data in less space.
+ * <p/>
+ * The .index is unchanged and the .data is replaced by a .cdata file of blocks compressed with Lz.  Each block is
+ * about BLOCK_SIZE bytes of whole excerpts, so an excerpt is read from one block which is decompressed the first time
+ * it is needed. The most recently used blocks are kept in a cache.
+ * <p/>
+ * The .cdata starts with MAGIC, the flags, the number of blocks, the number of excerpts, the format of the index
+ * entries and the bit size of the index buffers it was written with, followed by the position of each block in the
+ * original data and in the .cdata, plus where the last one ends. It is little endian.  Only an index of a long per
+ * excerpt is supported, and it is opened read only.
+ *
+ * @author peter.lawrey
+ */
+public class CompressedChronicle extends AbstractChronicle {
+    static final long MAGIC = 0x32415441444D4F43L; // "COMDATA2" in little endian.
+    static final int CHECKSUMS = 1;
+    static final int BIG_ENDIAN_INDEX = 2;
+    // the log2 of the size of an index entry.
+    static final int LONG_INDEX = 3;
+    static final int HEADER_SIZE = 32;
+    public static final int DEFAULT_CACHED_BLOCKS = 8;
+
+    private final FileChannel dataChannel;
+    private final MappedFile indexFile;
+    private final int indexLowMask;
+    private final ByteOrder byteOrder;
+    private final boolean checksums;
+    private final int blocks;
+    // the position of each block in the original data, and in the .cdata.
+    private final long[] dataPositions;
+    private final long[] filePositions;
+    // guarded by cache.
+    private final LinkedHashMap<Integer, ByteBuffer> cache = new LinkedHashMap<Integer, ByteBuffer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+            return size() > maxCachedBlocks;
+        }
+    };
+    private volatile int maxCachedBlocks = DEFAULT_CACHED_BLOCKS;
+    private long blocksDecompressed = 0;
+    private byte[] compressed = new byte[0];
+    private byte[] decompressed = new byte[0];
+    private boolean useUnsafe = false;
+
+    public CompressedChronicle(String basePath) throws IOException {
+        super(new File(basePath).getName());
+        dataChannel = new RandomAccessFile(basePath + ".cdata", "r").getChannel();
+        ByteBuffer header = readFully(0, HEADER_SIZE);
+        if (header.getLong() != MAGIC) {
+            dataChannel.close();
+            throw new IOException(basePath + ".cdata is not a compressed chronicle.");
+        }
+        int flags = header.getInt();
+        checksums = (flags & CHECKSUMS) != 0;
+        byteOrder = (flags & BIG_ENDIAN_INDEX) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        blocks = header.getInt();
+        size = header.getLong();
+        int indexFormat = header.getInt();
+        int indexBitSize = header.getInt();
+        if (indexFormat != LONG_INDEX || indexBitSize < 12 || indexBitSize > 30) {
+            dataChannel.close();
+            throw new IOException(basePath + ".cdata has an unsupported index format " + indexFormat);
+        }
+        indexLowMask = (1 << indexBitSize) - 1;
+        ByteBuffer positions = readFully(HEADER_SIZE, (blocks + 1) * 16);
+        dataPositions = new long[blocks + 1];
+        filePositions = new long[blocks + 1];
+        for (int i = 0; i <= blocks; i++)
+            dataPositions[i] = positions.getLong();
+        for (int i = 0; i <= blocks; i++)
+            filePositions[i] = positions.getLong();
+
+        indexFile = new MappedFile(new RandomAccessFile(basePath + ".index", "r").getChannel(), indexBitSize, byteOrder,
+                true) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return true;
+            }
+        };
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.remaining() > 0)
+            if (dataChannel.read(bb, position + bb.position()) < 0)
+                throw new IOException(name + ".cdata is truncated.");
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * @param maxCachedBlocks the number of decompressed blocks to keep.
+     */
+    public void maxCachedBlocks(int maxCachedBlocks) {
+        if (maxCachedBlocks < 1)
+            throw new IllegalArgumentException("maxCachedBlocks " + maxCachedBlocks + " must be >= 1");
+        this.maxCachedBlocks = maxCachedBlocks;
+    }
+
+    public int maxCachedBlocks() {
+        return maxCachedBlocks;
+    }
+
+    /**
+     * @return the number of times a block has been decompressed.
+     */
+    public long blocksDecompressed() {
+        synchronized (cache) {
+            return blocksDecompressed;
+        }
+    }
+
+    public int blocks() {
+        return blocks;
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe;
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    @Override
+    public ByteOrder byteOrder() {
+        return byteOrder;
+    }
+
+    @Override
+    public boolean checksums() {
+        return checksums;
+    }
+
+    @Override
+    public Excerpt<CompressedChronicle> createExcerpt() {
+        return useUnsafe ? new UnsafeExcerpt<CompressedChronicle>(this) : new ByteBufferExcerpt<CompressedChronicle>(this);
+    }
+
+    @Override
+    public long getIndexData(long indexId) {
+        if (indexId > size)
+            return 0;
+        long indexOffset = indexId << LONG_INDEX;
+        return indexFile.acquire(indexOffset).getLong((int) (indexOffset & indexLowMask));
+    }
+
+    private int block(long position) {
+        int block = Arrays.binarySearch(dataPositions, position);
+        return block >= 0 ? Math.min(block, blocks - 1) : -block - 2;
+    }
+
+    @Override
+    public ByteBuffer acquireDataBuffer(long startPosition) {
+        int block = block(startPosition);
+        synchronized (cache) {
+            ByteBuffer buffer = cache.get(block);
+            if (buffer == null) {
+                buffer = decompress(block);
+                cache.put(block, buffer);
+            }
+            return buffer;
+        }
+    }
+
+    private ByteBuffer decompress(int block) {
+        int compressedLength = (int) (filePositions[block + 1] - filePositions[block]);
+        int length = (int) (dataPositions[block + 1] - dataPositions[block]);
+        if (compressed.length < compressedLength)
+            compressed = new byte[compressedLength];
+        if (decompressed.length < length)
+            decompressed = new byte[length];
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(compressed, 0, compressedLength);
+            while (bb.remaining() > 0)
+                if (dataChannel.read(bb, filePositions[block] + bb.position()) < 0)
+                    throw new IOException(name + ".cdata is truncated.");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (Lz.decompress(compressed, 0, compressedLength, decompressed, 0, length) != length)
+            throw new IllegalStateException("Block " + block + " of " + name + " is corrupt.");
+        blocksDecompressed++;
+        // direct so an UnsafeExcerpt can read it, in the byte order the data was written in.  Excerpt.index() reads a
+        // long from the start of an excerpt, so there is slack after the last one in case it is shorter.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length + 8).order(ByteOrder.nativeOrder());
+        buffer.put(decompressed, 0, length);
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public int positionInBuffer(long startPosition) {
+        return (int) (startPosition - dataPositions[block(startPosition)]);
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        throw new UnsupportedOperationException(name + " is compressed and read only.");
+    }
+
+    @Override
+    public long startExcerpt(int capacity) {
+        throw new UnsupportedOperationException(name + " is compressed and read only.");
+    }
+
+    @Override
+    public void incrSize() {
+        throw new UnsupportedOperationException(name + " is compressed and read only.");
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return false;
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        throw new UnsupportedOperationException(name + " is compressed and read only.");
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        throw new UnsupportedOperationException(name + " is compressed and read only.");
+    }
+
+    public void close() {
+        try {
+            indexFile.close();
+        } finally {
+            try {
+                dataChannel.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (cache) {
+                cache.clear();
+            }
+        }
+    }
+}
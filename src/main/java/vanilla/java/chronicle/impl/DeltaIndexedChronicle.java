@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chronicle with a compact index of 64 byte blocks, one cache line each, rather than a long per excerpt.  A block
+ * holds the position of its first entry as a long, the overflow block of the entries which don't fit, and
+ * ENTRIES_PER_BLOCK unsigned shorts of the position of each entry relative to it, + 1 so 0 means not written. This is
+ * 2.5 bytes per excerpt rather than 8 and an entry is read from one cache line.
+ * <p/>
+ * An entry more than 64 KB after the start of its block is ESCAPE and its position is stored as a long in an overflow
+ * block in the .overflow file, which is only created when it is needed.  Excerpts smaller than about 2.5 KB are never
+ * escaped, for larger excerpts the index is bigger than a long per excerpt, but small compared with the data.
+ * <p/>
+ * multiWriter, batches and spanning buffers are not supported.
+ *
+ * @author peter.lawrey
+ */
+public class DeltaIndexedChronicle extends IndexedChronicle {
+    static final int BLOCK_BIT_SIZE = 6;
+    private static final int OVERFLOW_OFFSET = 8;
+    private static final int DELTAS_OFFSET = 12;
+    static final int ENTRIES_PER_BLOCK = ((1 << BLOCK_BIT_SIZE) - DELTAS_OFFSET) >> 1;
+    private static final int ESCAPE = 0xFFFF;
+    private static final long MAX_DELTA = ESCAPE - 2;
+    // overflow blocks are a long per entry, the first holds the number of overflow blocks.
+    private static final int OVERFLOW_BLOCK_BIT_SIZE = 8;
+    private static final int OVERFLOW_BIT_SIZE = 16;
+    private volatile MappedFile overflow;
+    private long syncedOverflowBlocks;
+
+    public DeltaIndexedChronicle(String basePath, int dataBitSizeHint) throws IOException {
+        super(basePath, dataBitSizeHint);
+    }
+
+    public DeltaIndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
+        super(basePath, dataBitSizeHint, byteOrder);
+    }
+
+    /**
+     * The index entries are 2 bytes, plus the header of each block.
+     */
+    @Override
+    protected int indexBitSize() {
+        return 1;
+    }
+
+    @Override
+    protected int indexFormat() {
+        return ChronicleHeader.DELTA_INDEX;
+    }
+
+    @Override
+    protected long indexPosition(long indexId) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        return (block << BLOCK_BIT_SIZE) + DELTAS_OFFSET + (entry << 1);
+    }
+
+    @Override
+    protected long indexEntries(long indexFileSize) {
+        return (indexFileSize >>> BLOCK_BIT_SIZE) * ENTRIES_PER_BLOCK;
+    }
+
+    @Override
+    public void multiWriter(boolean multiWriter) {
+        if (multiWriter)
+            throw new UnsupportedOperationException("multiWriter requires a 64-bit index.");
+        super.multiWriter(false);
+    }
+
+    @Override
+    public void startBatch() {
+        throw new UnsupportedOperationException("Batches require a 64-bit index.");
+    }
+
+    @Override
+    public void spanBuffers(boolean spanBuffers) {
+        if (spanBuffers)
+            throw new UnsupportedOperationException("Spanning buffers is not supported with a delta index.");
+        super.spanBuffers(false);
+    }
+
+    @Override
+    public long getIndexData(long indexId) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        long blockOffset = block << BLOCK_BIT_SIZE;
+        ByteBuffer indexBuffer = acquireIndexBuffer(blockOffset);
+        int offset = (int) (blockOffset & indexLowMask);
+        int delta = indexBuffer.getShort(offset + DELTAS_OFFSET + (entry << 1)) & 0xFFFF;
+        if (delta == ESCAPE)
+            return getOverflowData(indexBuffer.getInt(offset + OVERFLOW_OFFSET), entry);
+        // 0 if the delta is 0, otherwise base + delta - 1.
+        long written = -((long) (delta | -delta) >>> 63);
+        return (indexBuffer.getLong(offset) + delta - 1) & written;
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        long block = indexId / ENTRIES_PER_BLOCK;
+        int entry = (int) (indexId - block * ENTRIES_PER_BLOCK);
+        long blockOffset = block << BLOCK_BIT_SIZE;
+        ByteBuffer indexBuffer = acquireIndexBuffer(blockOffset);
+        int offset = (int) (blockOffset & indexLowMask);
+        int deltaOffset = offset + DELTAS_OFFSET + (entry << 1);
+        if (indexData == 0) {
+            // not written, or cleared.
+            indexBuffer.putShort(deltaOffset, (short) 0);
+            return;
+        }
+        // the first entry in a block sets the base for the rest, which are written after it.
+        if (entry == 0)
+            indexBuffer.putLong(offset, indexData);
+        long delta = indexData - indexBuffer.getLong(offset);
+        if (delta < 0)
+            throw new IllegalStateException("Index entries must be written in order.");
+        if (delta > MAX_DELTA) {
+            int overflowBlock = indexBuffer.getInt(offset + OVERFLOW_OFFSET);
+            if (overflowBlock == 0) {
+                overflowBlock = addOverflowBlock();
+                indexBuffer.putInt(offset + OVERFLOW_OFFSET, overflowBlock);
+            }
+            // the entry is written before it is escaped.
+            setOverflowData(overflowBlock, entry, indexData);
+            indexBuffer.putShort(deltaOffset, (short) ESCAPE);
+            return;
+        }
+        indexBuffer.putShort(deltaOffset, (short) (delta + 1));
+    }
+
+    private long getOverflowData(int overflowBlock, int entry) {
+        long position = ((long) overflowBlock << OVERFLOW_BLOCK_BIT_SIZE) + (entry << 3);
+        ByteBuffer buffer = overflow().acquire(position);
+        return buffer.getLong((int) (position & ((1 << OVERFLOW_BIT_SIZE) - 1)));
+    }
+
+    private void setOverflowData(int overflowBlock, int entry, long indexData) {
+        long position = ((long) overflowBlock << OVERFLOW_BLOCK_BIT_SIZE) + (entry << 3);
+        ByteBuffer buffer = overflow().acquire(position);
+        buffer.putLong((int) (position & ((1 << OVERFLOW_BIT_SIZE) - 1)), indexData);
+    }
+
+    /**
+     * Overflow blocks are only added by the single writer, and are not reused if the index is rolled back.
+     */
+    private int addOverflowBlock() {
+        ByteBuffer buffer = overflow().acquire(0);
+        long overflowBlocks = buffer.getLong(0) + 1;
+        if (overflowBlocks > Integer.MAX_VALUE)
+            throw new IllegalStateException("Too many overflow blocks in " + name);
+        buffer.putLong(0, overflowBlocks);
+        return (int) overflowBlocks;
+    }
+
+    private MappedFile overflow() {
+        MappedFile overflow = this.overflow;
+        return overflow == null ? openOverflow() : overflow;
+    }
+
+    // called while the super constructor is opening the Chronicle, so there is no field initializer.
+    private synchronized MappedFile openOverflow() {
+        if (overflow == null) {
+            try {
+                overflow = new MappedFile(new RandomAccessFile(basePath() + ".overflow", "rw").getChannel(),
+                        OVERFLOW_BIT_SIZE, byteOrder()) {
+                    @Override
+                    protected boolean inUse(ByteBuffer buffer) {
+                        return true;
+                    }
+                };
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * The overflow blocks are forced before the index entries which refer to them.
+     */
+    @Override
+    public void sync() {
+        MappedFile overflow = this.overflow;
+        if (overflow != null) {
+            synchronized (this) {
+                long overflowBlocks = overflow.acquire(0).getLong(0);
+                // the last overflow block can be written to again so it is forced again next time.
+                overflow.force(syncedOverflowBlocks << OVERFLOW_BLOCK_BIT_SIZE,
+                        (overflowBlocks + 1) << OVERFLOW_BLOCK_BIT_SIZE);
+                // the number of overflow blocks, so they are not reused after a crash.
+                overflow.force(0, 8);
+                syncedOverflowBlocks = overflowBlocks;
+            }
+        }
+        super.sync();
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            MappedFile overflow = this.overflow;
+            if (overflow != null)
+                overflow.close();
+        }
+    }
+}
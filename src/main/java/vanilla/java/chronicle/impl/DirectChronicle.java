@@ -26,9 +26,38 @@ import java.nio.ByteBuffer;
  * @author peter.lawrey
  */
 public interface DirectChronicle extends Chronicle {
+    /**
+     * Set on an index entry while the excerpt ending there has been reserved but not finished.
+     */
+    long PENDING = Long.MIN_VALUE;
+    /**
+     * An index entry reserved by a writer which has not determined where its excerpt ends.
+     */
+    long CLAIMED = -1L;
 
     public long getIndexData(long indexId);
 
+    /**
+     * @param index of an excerpt, or -1 for before the first one.
+     * @return the index of the excerpt which follows it.
+     */
+    long nextIndex(long index);
+
+    /**
+     * @return whether each excerpt ends with a CRC-32C of the rest of the excerpt.
+     */
+    boolean checksums();
+
+    /**
+     * @return whether the checksum is checked each time an excerpt is read.
+     */
+    boolean verifyChecksums();
+
+    /**
+     * @return the number of bytes before each excerpt in the data which are not part of it.
+     */
+    int excerptHeaderSize();
+
     ByteBuffer acquireDataBuffer(long startPosition);
 
     int positionInBuffer(long startPosition);
@@ -37,5 +66,38 @@ public interface DirectChronicle extends Chronicle {
 
     long startExcerpt(int capacity);
 
+    /**
+     * @return the index of the excerpt startExcerpt() writes, this can be after size() while a batch is written.
+     */
+    long writeIndex();
+
+    /**
+     * @return whether the excerpt at index has been written in a batch which hasn't been published, so it cannot be
+     *         read yet even though its index entry has been written.
+     */
+    boolean unpublished(long index);
+
     void incrSize();
+
+    /**
+     * @return true if excerpts are reserved with reserveExcerpt and publishExcerpt rather than startExcerpt and incrSize.
+     */
+    boolean multiWriter();
+
+    /**
+     * Reserve the next free index for an excerpt of capacity bytes. This may be called by many threads concurrently.
+     * <p/>
+     * The excerpt starts at getIndexData(index) and the end of the excerpt is marked PENDING until it is published.
+     *
+     * @param capacity to reserve.
+     * @return the index reserved.
+     */
+    long reserveExcerpt(int capacity);
+
+    /**
+     * Make a reserved excerpt visible to readers.
+     *
+     * @param index reserved by reserveExcerpt.
+     */
+    void publishExcerpt(long index);
 }
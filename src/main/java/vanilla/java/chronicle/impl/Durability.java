@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+/**
+ * How hard an IndexedChronicle tries to get excerpts onto disk, trading latency for safety if the machine loses power.
+ * A process dying is always safe as the OS writes back the mapped files.
+ *
+ * @author peter.lawrey
+ */
+public enum Durability {
+    /**
+     * Leave writing back to the OS.
+     */
+    NONE,
+    /**
+     * Force what has been written to disk periodically in a background thread.  Excerpts finished since the last force
+     * can be lost.
+     */
+    ASYNC,
+    /**
+     * finish() waits until the excerpt has been forced to disk.  The excerpts finished within a window of time, or up
+     * to a maximum count, are forced together and their writers released at once.
+     */
+    GROUP_COMMIT
+}
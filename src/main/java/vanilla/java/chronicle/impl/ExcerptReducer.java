@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+/**
+ * Reduces the excerpts of a range to a result. Used by ParallelScan to scan ranges of a Chronicle concurrently and
+ * combine their results.
+ * <p/>
+ * initial() and accumulate() are called by one thread per range, combine() is called by the thread which started the
+ * scan.
+ *
+ * @author peter.lawrey
+ */
+public interface ExcerptReducer<R> {
+    /**
+     * @return the result for an empty range.
+     */
+    R initial();
+
+    /**
+     * @param result  so far for this range.
+     * @param excerpt the next excerpt of the range, only valid until accumulate() returns.
+     * @return the result including this excerpt.
+     */
+    R accumulate(R result, Excerpt excerpt);
+
+    /**
+     * @param earlier the result of the earlier range.
+     * @param later   the result of the range which follows it.
+     * @return the result of both ranges.
+     */
+    R combine(R earlier, R later);
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chronicle of excerpts which are all recordSize bytes, so excerpt n starts at n * recordSize and there is no index
+ * file.  The number of excerpts written is the only thing recorded in the .header, so finishing an excerpt is one
+ * ordered write.
+ * <p/>
+ * As many records as fit are packed into each data buffer so a record never spans buffers, leaving at least 8 bytes
+ * from the start of the last record to the end of the buffer. The positions passed to
+ * acquireDataBuffer() and positionInBuffer() are n * recordSize plus an offset in the record, as if the records were
+ * contiguous.
+ * <p/>
+ * Only one thread may write, but any number of threads or processes can read while it does.
+ *
+ * @author peter.lawrey
+ */
+public class FixedRecordChronicle extends AbstractChronicle {
+    private final int recordSize;
+    private final int dataBitSize;
+    private final int recordsPerBuffer;
+    private final MappedFile dataFile;
+    private final ChronicleHeader header;
+    private boolean useUnsafe = false;
+
+    public FixedRecordChronicle(String basePath, int dataBitSizeHint, int recordSize) throws IOException {
+        super(new File(basePath).getName());
+        if (recordSize < 1)
+            throw new IllegalArgumentException("recordSize " + recordSize + " must be >= 1");
+        this.recordSize = recordSize;
+        int dataBitSize = Math.min(30, Math.max(12, dataBitSizeHint));
+        while (dataBitSize < 30 && (1 << dataBitSize) < recordSize)
+            dataBitSize++;
+        if ((1 << dataBitSize) < recordSize)
+            throw new IllegalArgumentException("recordSize " + recordSize + " is too large.");
+        this.dataBitSize = dataBitSize;
+        // Excerpt.index() reads a long from the start of a record, so a record shorter than that isn't put at the very
+        // end of a buffer.
+        recordsPerBuffer = Math.min((1 << dataBitSize) / recordSize, ((1 << dataBitSize) - 8) / recordSize + 1);
+
+        File parentFile = new File(basePath).getParentFile();
+        if (parentFile != null)
+            parentFile.mkdirs();
+        dataFile = new MappedFile(new RandomAccessFile(basePath + ".data", "rw").getChannel(), dataBitSize, ByteOrder.nativeOrder()) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return true;
+            }
+        };
+        header = new ChronicleHeader(basePath + ".header");
+        int headerRecordSize = header.recordSize(recordSize);
+        if (headerRecordSize != recordSize) {
+            close();
+            throw new IllegalStateException(basePath + " has a recordSize of " + headerRecordSize + " not " + recordSize);
+        }
+        // there is no index to recover.
+        header.initialised();
+        size = header.nextIndex();
+        System.out.println(basePath + ", size=" + size);
+    }
+
+    public int recordSize() {
+        return recordSize;
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe;
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    public ByteOrder byteOrder() {
+        return ByteOrder.nativeOrder();
+    }
+
+    @Override
+    public Excerpt<FixedRecordChronicle> createExcerpt() {
+        return useUnsafe ? new UnsafeExcerpt<FixedRecordChronicle>(this) : new ByteBufferExcerpt<FixedRecordChronicle>(this);
+    }
+
+    /**
+     * @return the number of excerpts finished by the writer, in any process.
+     */
+    @Override
+    public long size() {
+        return header.nextIndex();
+    }
+
+    /**
+     * @return the position of the excerpt, or 0 if the excerpt before it hasn't been finished.
+     */
+    @Override
+    public long getIndexData(long indexId) {
+        return indexId <= header.nextIndex() ? indexId * recordSize : 0;
+    }
+
+    @Override
+    public ByteBuffer acquireDataBuffer(long startPosition) {
+        long record = startPosition / recordSize;
+        return dataFile.acquire(record / recordsPerBuffer << dataBitSize);
+    }
+
+    @Override
+    public int positionInBuffer(long startPosition) {
+        long record = startPosition / recordSize;
+        return (int) (record % recordsPerBuffer * recordSize + startPosition % recordSize);
+    }
+
+    @Override
+    public long startExcerpt(int capacity) {
+        if (capacity > recordSize)
+            throw new IllegalArgumentException("Capacity " + capacity + " is larger than the recordSize " + recordSize);
+        return size * recordSize;
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        // every record is recordSize long.
+    }
+
+    @Override
+    public void incrSize() {
+        header.commit(++size);
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return false;
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        throw new UnsupportedOperationException("multiWriter is not supported for fixed size records.");
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        throw new UnsupportedOperationException("multiWriter is not supported for fixed size records.");
+    }
+
+    /**
+     * Clear any previous data in the Chronicle.
+     * <p/>
+     * Added for testing purposes.
+     */
+    public void clear() {
+        size = 0;
+        header.reset(0, 0);
+    }
+
+    public void close() {
+        try {
+            dataFile.close();
+        } finally {
+            header.close();
+        }
+    }
+}
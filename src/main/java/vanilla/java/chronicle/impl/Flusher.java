@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forces the excerpts written to a Chronicle to disk, either periodically or as a group commit for the writers waiting
+ * in committed().
+ *
+ * @author peter.lawrey
+ */
+class Flusher implements Runnable {
+    private final IndexedChronicle chronicle;
+    private final Durability durability;
+    private final long periodNanos;
+    private final int maxBatch;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    // why the flusher died, so writers aren't told their excerpts are durable when they are not.
+    private volatile RuntimeException failure = null;
+    // guarded by this.
+    private long requested = 0, synced = 0;
+    private long firstRequestNanos = 0;
+
+    Flusher(IndexedChronicle chronicle, Durability durability, long periodNanos, int maxBatch) {
+        this.chronicle = chronicle;
+        this.durability = durability;
+        this.periodNanos = periodNanos;
+        this.maxBatch = maxBatch;
+        thread = new Thread(this, chronicle.name() + "-flusher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    Durability durability() {
+        return durability;
+    }
+
+    long periodNanos() {
+        return periodNanos;
+    }
+
+    int maxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Called after an excerpt has been committed. For a group commit this waits until it has been forced to disk.
+     *
+     * @throws IllegalStateException if the flusher failed to force the Chronicle to disk.
+     */
+    void committed() {
+        checkFailure();
+        if (durability != Durability.GROUP_COMMIT)
+            return;
+        boolean interrupted = false;
+        synchronized (this) {
+            long ticket = ++requested;
+            if (ticket == synced + 1)
+                firstRequestNanos = System.nanoTime();
+            if (ticket - synced >= maxBatch || ticket == synced + 1)
+                notifyAll();
+            while (synced < ticket && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw new IllegalStateException(chronicle.name() + " is no longer being forced to disk", failure);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                if (durability == Durability.ASYNC) {
+                    LockSupport.parkNanos(periodNanos);
+                    chronicle.sync();
+                } else {
+                    groupCommit();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (RuntimeException e) {
+            failure = e;
+            if (!closed)
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, chronicle.name() + " flusher dying", e);
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void groupCommit() throws InterruptedException {
+        long target;
+        synchronized (this) {
+            while (!closed && requested == synced)
+                wait();
+            // wait for the window to fill or expire.
+            long deadline = firstRequestNanos + periodNanos, now;
+            while (!closed && requested - synced < maxBatch && (now = System.nanoTime()) < deadline)
+                TimeUnit.NANOSECONDS.timedWait(this, deadline - now);
+            target = requested;
+        }
+        // every commit up to target has been written so one force covers them all.
+        chronicle.sync();
+        synchronized (this) {
+            synced = target;
+            if (requested > synced)
+                firstRequestNanos = System.nanoTime();
+            notifyAll();
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import sun.nio.ch.DirectBuffer;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chronicle held in direct memory rather than files, for tests and passing excerpts between threads. The index and
+ * data are allocated a segment at a time as they grow, and freed when it is closed.
+ * <p/>
+ * To pass excerpts between processes without the overhead of a file system on disk, use createShared() for an
+ * IndexedChronicle in /dev/shm.
+ * <p/>
+ * Only one thread may write, but any number of threads can read while it does.
+ *
+ * @author peter.lawrey
+ */
+public class InMemoryChronicle extends AbstractChronicle {
+    public static final String SHARED_MEMORY_DIR = "/dev/shm";
+
+    private final int indexBitSize;
+    private final int indexLowMask;
+    private final int dataBitSize;
+    private final int dataLowMask;
+    private final Segments indexSegments;
+    private final Segments dataSegments;
+    private boolean useUnsafe = false;
+
+    public InMemoryChronicle(String name, int dataBitSizeHint) {
+        super(name);
+        indexBitSize = Math.min(30, Math.max(12, dataBitSizeHint - 4));
+        dataBitSize = Math.min(30, Math.max(12, dataBitSizeHint));
+        indexLowMask = (1 << indexBitSize) - 1;
+        dataLowMask = (1 << dataBitSize) - 1;
+        indexSegments = new Segments(indexBitSize);
+        dataSegments = new Segments(dataBitSize);
+    }
+
+    /**
+     * Create an IndexedChronicle in shared memory, so other processes on this machine can open it by name.  If there is
+     * no /dev/shm, it is created in java.io.tmpdir instead.
+     *
+     * @param name of the Chronicle, which is the same in every process.
+     */
+    public static IndexedChronicle createShared(String name, int dataBitSizeHint) throws IOException {
+        File dir = new File(SHARED_MEMORY_DIR);
+        if (!dir.isDirectory())
+            dir = new File(System.getProperty("java.io.tmpdir"));
+        return new IndexedChronicle(new File(dir, name).getPath(), dataBitSizeHint);
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe;
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    public ByteOrder byteOrder() {
+        return ByteOrder.nativeOrder();
+    }
+
+    @Override
+    public Excerpt<InMemoryChronicle> createExcerpt() {
+        return useUnsafe ? new UnsafeExcerpt<InMemoryChronicle>(this) : new ByteBufferExcerpt<InMemoryChronicle>(this);
+    }
+
+    /**
+     * @return the number of index and data segments allocated.
+     */
+    public int segments() {
+        return indexSegments.count() + dataSegments.count();
+    }
+
+    @Override
+    public long getIndexData(long indexId) {
+        long indexOffset = indexId << 3;
+        return indexSegments.acquire(indexOffset).getLong((int) (indexOffset & indexLowMask));
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        long indexOffset = indexId << 3;
+        indexSegments.acquire(indexOffset).putLong((int) (indexOffset & indexLowMask), indexData);
+    }
+
+    @Override
+    public ByteBuffer acquireDataBuffer(long startPosition) {
+        return dataSegments.acquire(startPosition);
+    }
+
+    @Override
+    public int positionInBuffer(long startPosition) {
+        return (int) (startPosition & dataLowMask);
+    }
+
+    @Override
+    public long startExcerpt(int capacity) {
+        if (capacity >= dataLowMask)
+            throw new IllegalArgumentException("Capacity " + capacity + " doesn't fit in a segment.");
+        long startPosition = getIndexData(size);
+        // does it overlap a segment barrier.
+        if ((startPosition & ~dataLowMask) != ((startPosition + capacity) & ~dataLowMask)) {
+            // resize the previous entry.
+            startPosition = (startPosition + dataLowMask) & ~dataLowMask;
+            setIndexData(size, startPosition);
+        }
+        return startPosition;
+    }
+
+    @Override
+    public void incrSize() {
+        size++;
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return false;
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        throw new UnsupportedOperationException("multiWriter is not supported in memory.");
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        throw new UnsupportedOperationException("multiWriter is not supported in memory.");
+    }
+
+    /**
+     * Clear any previous data in the Chronicle, keeping the segments allocated.
+     */
+    public void clear() {
+        size = 0;
+        setIndexData(1, 0);
+    }
+
+    /**
+     * Free the memory. The Chronicle and its Excerpts cannot be used after this.
+     */
+    public void close() {
+        size = 0;
+        indexSegments.free();
+        dataSegments.free();
+    }
+
+    /**
+     * Direct buffers of 2^bitSize bytes allocated as they are needed. Finding a segment already allocated doesn't
+     * lock.
+     */
+    static class Segments {
+        private final int bitSize;
+        private volatile AtomicReferenceArray<ByteBuffer> buffers = new AtomicReferenceArray<ByteBuffer>(16);
+        private int count = 0;
+
+        Segments(int bitSize) {
+            this.bitSize = bitSize;
+        }
+
+        ByteBuffer acquire(long position) {
+            int segmentId = (int) (position >> bitSize);
+            AtomicReferenceArray<ByteBuffer> buffers = this.buffers;
+            if (segmentId < buffers.length()) {
+                ByteBuffer buffer = buffers.get(segmentId);
+                if (buffer != null)
+                    return buffer;
+            }
+            return acquire0(segmentId);
+        }
+
+        private synchronized ByteBuffer acquire0(int segmentId) {
+            AtomicReferenceArray<ByteBuffer> buffers = this.buffers;
+            if (segmentId >= buffers.length()) {
+                AtomicReferenceArray<ByteBuffer> buffers2 =
+                        new AtomicReferenceArray<ByteBuffer>(Math.max(segmentId + 1, buffers.length() * 2));
+                for (int i = 0; i < buffers.length(); i++)
+                    buffers2.set(i, buffers.get(i));
+                this.buffers = buffers = buffers2;
+            }
+            ByteBuffer buffer = buffers.get(segmentId);
+            if (buffer == null) {
+                // allocateDirect() zeros the memory, so unwritten index entries are 0.
+                buffer = ByteBuffer.allocateDirect(1 << bitSize).order(ByteOrder.nativeOrder());
+                buffers.set(segmentId, buffer);
+                count++;
+            }
+            return buffer;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized void free() {
+            AtomicReferenceArray<ByteBuffer> buffers = this.buffers;
+            for (int i = 0; i < buffers.length(); i++) {
+                ByteBuffer buffer = buffers.getAndSet(i, null);
+                if (buffer != null)
+                    ((DirectBuffer) buffer).cleaner().clean();
+            }
+            count = 0;
+        }
+    }
+}
@@ -16,17 +16,23 @@
 
 package vanilla.java.chronicle.impl;
 
+import sun.misc.Unsafe;
 import sun.nio.ch.DirectBuffer;
 import vanilla.java.chronicle.Excerpt;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -36,15 +42,44 @@ import java.util.List;
  */
 public class IndexedChronicle extends AbstractChronicle {
     public static final long MAX_VIRTUAL_ADDRESS = 1L << 48;
-    private final List<MappedByteBuffer> indexBuffers = new ArrayList<MappedByteBuffer>();
-    private final List<MappedByteBuffer> dataBuffers = new ArrayList<MappedByteBuffer>();
+    /**
+     * The bytes of data at the end of the Chronicle whose excerpts are checked when it is opened.
+     */
+    public static final long RECOVER_BYTES = Long.getLong("chronicle.recoverBytes", 1 << 20);
+    private final String basePath;
     private final int indexBitSize;
     protected final int indexLowMask;
     private final int dataBitSize;
     private final int dataLowMask;
-    private final FileChannel indexChannel;
-    private final FileChannel dataChannel;
+    private final MappedFile indexFile;
+    private final MappedFile dataFile;
+    private final List<WeakReference<AbstractExcerpt>> excerpts = new ArrayList<WeakReference<AbstractExcerpt>>();
+    private Thread excerptThread = null;
+    private volatile int excerptThreads = 0;
+    private final ChronicleHeader header;
     private boolean useUnsafe = false;
+    private volatile boolean multiWriter = false;
+    private boolean spanBuffers = false;
+    private boolean checksums = false;
+    private boolean verifyChecksums = false;
+    private long recoveredExcerpts = 0;
+    private long checksumFailures = 0;
+    private volatile TimeIndex timeIndex = null;
+    // the index of the first excerpt in the current batch, or -1 if not batching.
+    private volatile long batchStart = -1;
+    // guarded by wakeLock.
+    private final Object wakeLock = new Object();
+    private DatagramChannel wakeChannel = null;
+    private final InetSocketAddress[] wakeAddresses = new InetSocketAddress[ChronicleHeader.MAX_WAITERS];
+    private final ByteBuffer wakeBuffer = ByteBuffer.allocate(1);
+    private volatile BackgroundMapper mapper = null;
+    private volatile PreToucher preToucher = null;
+    private volatile Flusher flusher = null;
+    // guarded by syncLock.
+    private final Object syncLock = new Object();
+    private long syncedDataPosition = 0, syncedIndex = 0, syncs = 0;
+    // only used by the mapper thread.
+    private long dataMappedAhead = -1, indexMappedAhead = -1;
     private final ByteOrder byteOrder;
 
     public IndexedChronicle(String basePath, int dataBitSizeHint) throws IOException {
@@ -54,6 +89,7 @@ public class IndexedChronicle extends AbstractChronicle {
     public IndexedChronicle(String basePath, int dataBitSizeHint, ByteOrder byteOrder) throws IOException {
         super(extractName(basePath));
 
+        this.basePath = basePath;
         this.byteOrder = byteOrder;
         indexBitSize = Math.min(30, Math.max(12, dataBitSizeHint - 4));
         dataBitSize = Math.min(30, Math.max(12, dataBitSizeHint));
@@ -63,20 +99,184 @@ public class IndexedChronicle extends AbstractChronicle {
         File parentFile = new File(basePath).getParentFile();
         if (parentFile != null)
             parentFile.mkdirs();
-        indexChannel = new RandomAccessFile(basePath + ".index", "rw").getChannel();
-        dataChannel = new RandomAccessFile(basePath + ".data", "rw").getChannel();
+        FileChannel indexChannel = new RandomAccessFile(basePath + ".index", "rw").getChannel();
+        indexFile = new MappedFile(indexChannel, indexBitSize, byteOrder) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                // index buffers are only held by another thread.
+                return concurrentMapping();
+            }
+        };
+        FileChannel dataChannel = new RandomAccessFile(basePath + ".data", "rw").getChannel();
+        dataFile = new MappedFile(dataChannel, dataBitSize, ByteOrder.nativeOrder()) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return concurrentMapping() || excerptUsing(buffer);
+            }
+        };
+        header = new ChronicleHeader(basePath + ".header");
+        boolean opened = false;
+        try {
+            open();
+            opened = true;
+        } finally {
+            if (opened) {
+                header.initialised();
+            } else {
+                indexFile.close();
+                dataFile.close();
+                header.close();
+            }
+        }
+    }
+
+    /**
+     * Called holding the header's init lock, so if this is exclusive, no other process can open the Chronicle until it
+     * has been recovered.
+     */
+    private void open() throws IOException {
+        // check the index is read as it was written before it is recovered.
+        int indexFormat = header.flags() & ChronicleHeader.INDEX_FORMATS;
+        if (indexFormat == 0)
+            header.setFlags(indexFormat());
+        else if (indexFormat != indexFormat())
+            throw new IllegalStateException(basePath + " was written with a different index format.");
+        spanBuffers = (header.flags() & ChronicleHeader.SPAN_BUFFERS) != 0;
+        checksums = (header.flags() & ChronicleHeader.CHECKSUMS) != 0;
+        if ((header.flags() & ChronicleHeader.TIMESTAMPS) != 0)
+            timeIndex = new TimeIndex(basePath, indexBitSize);
+        if (header.exclusive())
+            header.clearWaiters();
 
         // find the last record.
-        long indexSize = indexChannel.size() >>> indexBitSize();
+        long indexSize = indexEntries(indexFile.size());
         if (indexSize > 0) {
-            while (--indexSize > 0 && getIndexData(indexSize) == 0) ;
-            System.out.println(basePath + ", size=" + indexSize);
-            size = indexSize;
+            if (header.created()) {
+                size = scanForSize(indexSize);
+                header.reset(size, getIndexData(size) & ~PENDING);
+            } else {
+                size = validateSize(header.nextIndex(), indexSize);
+                // other processes could be writing so the header is only moved forward.
+                header.advanceNextIndex(size);
+                header.advanceWritePosition(getIndexData(size) & ~PENDING);
+            }
+            // only safe if no other process could be writing.
+            if (header.exclusive()) {
+                long validSize = recover(size, indexSize);
+                if (validSize < size) {
+                    System.out.println(basePath + ", rolled back " + (size - validSize) + " incomplete excerpts");
+                    recoveredExcerpts = size - validSize;
+                    size = validSize;
+                }
+                header.reset(size, getIndexData(size));
+            }
+            System.out.println(basePath + ", size=" + size);
         } else {
             System.out.println(basePath + " created.");
         }
     }
 
+    /**
+     * Check the size recorded in the header against the index. This only touches the index around the end.
+     */
+    private long validateSize(long hint, long indexSize) {
+        // the header can be ahead of the index if the OS didn't write back every page before a crash.
+        if (hint < 0 || hint >= indexSize - 1 || (hint > 0 && getIndexData(hint) == 0)) {
+            long size = scanForSize(indexSize);
+            header.reset(size, getIndexData(size) & ~PENDING);
+            return size;
+        }
+        // the header can lag the index by the excerpts finished after it was last written, but not a batch which
+        // another process is writing.  If no other process has it open, the batch is rolled back by recover().
+        if (!header.exclusive() && header.batchStart() >= 0)
+            return hint;
+        while (getIndexData(hint + 1) != 0)
+            hint++;
+        return hint;
+    }
+
+    /**
+     * Check the excerpts in the last RECOVER_BYTES of data and roll back the index to before the first which is
+     * incomplete, i.e. a writer died before finishing it so its end is still CLAIMED or PENDING, or before the start of
+     * a batch which wasn't published however long it is.  Excerpts which fail their checksum are reported but kept, as
+     * the rest of the excerpt and those after it are still good.  Only called when no other process has the Chronicle
+     * open.
+     *
+     * @return the number of complete excerpts.
+     */
+    private long recover(long size, long indexSize) {
+        long dataSize;
+        try {
+            dataSize = dataFile.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        long validSize = size;
+        for (long index = size - 1, checked = 0; index >= 0 && checked < RECOVER_BYTES; index--) {
+            long startPosition = getIndexData(index);
+            long endPosition = getIndexData(index + 1);
+            // CLAIMED and PENDING are negative.
+            if (startPosition < 0 || endPosition <= startPosition || endPosition > dataSize
+                    || endPosition - startPosition > Integer.MAX_VALUE) {
+                validSize = index;
+                continue;
+            }
+            checked += endPosition - startPosition;
+            if (checksums && index < validSize && checksum(startPosition, endPosition) != 0) {
+                System.out.println(basePath + ", excerpt " + index + " failed its checksum");
+                checksumFailures++;
+            }
+        }
+        // a batch which wasn't published can be longer than RECOVER_BYTES.
+        long batchStart = header.batchStart();
+        if (batchStart >= 0 && batchStart < validSize)
+            validSize = batchStart;
+        header.batchStart(-1);
+        // clear the entries past the end, including any reserved by a writer in multiWriter mode.
+        for (long i = validSize + 1; i < indexSize && getIndexData(i) != 0; i++)
+            setIndexData(i, 0);
+        return validSize;
+    }
+
+    private int checksum(long startPosition, long endPosition) {
+        int crc = ~0;
+        for (long position = startPosition; position < endPosition; ) {
+            ByteBuffer buffer = acquireDataBuffer(position);
+            int offset = positionInBuffer(position);
+            int length = (int) Math.min(endPosition - position, buffer.capacity() - offset);
+            crc = Crc32c.update(crc, buffer, offset, length);
+            position += length;
+        }
+        return crc;
+    }
+
+    /**
+     * @return the number of excerpts rolled back when the Chronicle was opened as they were incomplete.
+     */
+    public long recoveredExcerpts() {
+        return recoveredExcerpts;
+    }
+
+    /**
+     * @return the number of excerpts near the end which failed their checksum when the Chronicle was opened.  These are
+     *         not rolled back, use ChronicleChecker to check the whole Chronicle.
+     */
+    public long checksumFailures() {
+        return checksumFailures;
+    }
+
+    /**
+     * Search backwards from the end of the index for the last entry. Only used if there is no header.
+     */
+    private long scanForSize(long indexSize) {
+        while (--indexSize > 0 && getIndexData(indexSize) == 0) ;
+        return indexSize;
+    }
+
+    protected String basePath() {
+        return basePath;
+    }
+
     private static String extractName(String basePath) {
         File file = new File(basePath);
         String name = file.getName();
@@ -94,6 +294,34 @@ public class IndexedChronicle extends AbstractChronicle {
         return 3;
     }
 
+    /**
+     * @return the ChronicleHeader flag for the format of the index, recorded so it cannot be opened with another.
+     */
+    protected int indexFormat() {
+        return 0;
+    }
+
+    /**
+     * @return the size of the index buffers, the index file is a multiple of this.
+     */
+    int indexBufferBitSize() {
+        return indexBitSize;
+    }
+
+    /**
+     * @return the position in the index file of the entry for an index.
+     */
+    protected long indexPosition(long indexId) {
+        return indexId << indexBitSize();
+    }
+
+    /**
+     * @return the number of index entries which fit in an index file of this length.
+     */
+    protected long indexEntries(long indexFileSize) {
+        return indexFileSize >>> indexBitSize();
+    }
+
     public void useUnsafe(boolean useUnsafe) {
         this.useUnsafe = useUnsafe && byteOrder == ByteOrder.nativeOrder();
     }
@@ -102,18 +330,532 @@ public class IndexedChronicle extends AbstractChronicle {
         return useUnsafe;
     }
 
+    /**
+     * Allow any number of threads to write to this Chronicle concurrently, each with its own Excerpt.
+     * <p/>
+     * Writers reserve an index and the data space for it with a CAS on the index entry so excerpts are not shrink
+     * wrapped to the size actually used. Requires the native byte order.
+     * <p/>
+     * The next index and write position are held in the shared .header file so writers in other processes can append
+     * to the same Chronicle provided they all enable multiWriter.
+     *
+     * @param multiWriter whether concurrent writers are allowed.
+     */
+    public void multiWriter(boolean multiWriter) {
+        if (multiWriter && byteOrder != ByteOrder.nativeOrder())
+            throw new IllegalStateException("multiWriter requires the native byte order.");
+        if (multiWriter && batchStart >= 0)
+            throw new IllegalStateException("multiWriter cannot be enabled during a batch.");
+        if (multiWriter)
+            header.advanceNextIndex(size);
+        this.multiWriter = multiWriter;
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return multiWriter;
+    }
+
+    /**
+     * Start a batch of excerpts which become visible to readers together when publishBatch() is called.
+     * <p/>
+     * Each excerpt finished in the batch only writes its index entry, the size in the header and any Durability or
+     * Wakeup are updated once for the whole batch.  The start of the batch is recorded in the header, and while it is
+     * set readers don't read excerpts at or past the size in the header, see unpublished(), so they cannot see the
+     * batch in order or by index.  If the writer dies before publishing it, the whole batch is rolled back.  Requires a
+     * single writer.
+     */
+    public void startBatch() {
+        if (multiWriter)
+            throw new IllegalStateException("Batches are not supported with multiWriter.");
+        if (batchStart >= 0)
+            throw new IllegalStateException("A batch has already been started.");
+        header.batchStart(size);
+        batchStart = size;
+    }
+
+    public boolean batching() {
+        return batchStart >= 0;
+    }
+
+    /**
+     * @return whether the excerpt is in a batch which hasn't been published.  This is checked after reading its index
+     *         entry as the batch is recorded in the header before its excerpts are written.
+     */
+    @Override
+    public boolean unpublished(long index) {
+        return header.batchStart() >= 0 && index >= header.nextIndex();
+    }
+
+    /**
+     * Make every excerpt finished since startBatch() visible to readers at once, with one ordered write of the size in
+     * the header.
+     *
+     * @return the number of excerpts published.
+     */
+    public long publishBatch() {
+        if (batchStart < 0)
+            throw new IllegalStateException("No batch has been started.");
+        long count = size - batchStart;
+        if (count > 0)
+            header.commit(size, getIndexData(size));
+        // readers already see the batch as it is before the size in the header.
+        header.clearBatchStart();
+        batchStart = -1;
+        if (count > 0)
+            committed();
+        return count;
+    }
+
+    /**
+     * Allow excerpts to span data buffers rather than padding to the start of the next buffer. This uses the data file
+     * fully and allows excerpts of any size up to Integer.MAX_VALUE, but every excerpt is a SpanningExcerpt which is
+     * slower than the other Excerpts.
+     * <p/>
+     * This is recorded in the header so once excerpts have been written this way it cannot be turned off.
+     *
+     * @param spanBuffers whether excerpts can span data buffers.
+     */
+    public void spanBuffers(boolean spanBuffers) {
+        if (spanBuffers) {
+            header.setFlags(ChronicleHeader.SPAN_BUFFERS);
+        } else if ((header.flags() & ChronicleHeader.SPAN_BUFFERS) != 0) {
+            throw new IllegalStateException("Excerpts in " + name + " can already span buffers.");
+        }
+        this.spanBuffers = spanBuffers;
+    }
+
+    public boolean spanBuffers() {
+        return spanBuffers;
+    }
+
+    /**
+     * Add a CRC-32C of each excerpt to the end of it when it is finished.  The checksum is not included in the capacity
+     * of the excerpt.
+     * <p/>
+     * This is recorded in the header so it can only be turned on before the first excerpt is written and cannot be
+     * turned off.
+     *
+     * @param checksums whether excerpts have a checksum.
+     */
+    public void checksums(boolean checksums) {
+        if (checksums == this.checksums)
+            return;
+        if (!checksums)
+            throw new IllegalStateException("Excerpts in " + name + " already have checksums.");
+        if (writeIndex() > 0)
+            throw new IllegalStateException("Excerpts in " + name + " have been written without checksums.");
+        header.setFlags(ChronicleHeader.CHECKSUMS);
+        this.checksums = true;
+    }
+
+    @Override
+    public boolean checksums() {
+        return checksums;
+    }
+
+    /**
+     * Check the checksum of every excerpt read, so Excerpt.index() throws an IllegalStateException if an excerpt has
+     * been corrupted.
+     *
+     * @param verifyChecksums whether to check the checksums on reading.
+     */
+    public void verifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    @Override
+    public boolean verifyChecksums() {
+        return verifyChecksums && checksums;
+    }
+
+    /**
+     * Record the time each excerpt is started in a .time file so readers can seek() to a time.
+     * <p/>
+     * This is recorded in the header so it can only be turned on before the first excerpt is written and cannot be
+     * turned off.
+     *
+     * @param timestamps whether excerpts have a timestamp.
+     */
+    public synchronized void timestamps(boolean timestamps) throws IOException {
+        if (timestamps == timestamps())
+            return;
+        if (!timestamps)
+            throw new IllegalStateException("Excerpts in " + name + " already have timestamps.");
+        if (writeIndex() > 0)
+            throw new IllegalStateException("Excerpts in " + name + " have been written without timestamps.");
+        header.setFlags(ChronicleHeader.TIMESTAMPS);
+        timeIndex = new TimeIndex(basePath, indexBitSize);
+    }
+
+    public boolean timestamps() {
+        return timeIndex != null;
+    }
+
+    /**
+     * @return the time the excerpt was started in nanoseconds since the epoch, or 0 if it hasn't been written.
+     */
+    public long timestamp(long index) {
+        TimeIndex timeIndex = timeIndex();
+        return index < 0 || index >= size() ? 0 : timeIndex.timestamp(index);
+    }
+
+    /**
+     * Find the first excerpt started at or after a time with an interpolation search of the timestamps, alternating
+     * with a binary search so uneven write rates take at most twice the steps of a binary search.
+     * <p/>
+     * With multiWriter the timestamps of concurrent writers can be out of order by the time between reserving and
+     * timing their excerpts, in which case an excerpt close to the time found can be before it.
+     *
+     * @param timeNanos since the epoch.
+     * @return the index of the first excerpt at or after timeNanos, or size() if there is none yet.
+     */
+    public long seek(long timeNanos) {
+        TimeIndex timeIndex = timeIndex();
+        long lo = 0, hi = size();
+        // the last excerpts reserved by multiWriters might not have been timed yet.
+        while (hi > 0 && timeIndex.timestamp(hi - 1) == 0)
+            hi--;
+        boolean interpolate = true;
+        // every excerpt before lo is earlier than timeNanos, and every excerpt from hi on isn't.
+        while (lo < hi) {
+            long loTime = timeIndex.timestamp(lo);
+            if (loTime >= timeNanos)
+                return lo;
+            long hiTime = timeIndex.timestamp(hi - 1);
+            if (hiTime < timeNanos)
+                return hi;
+            long mid = interpolate
+                    ? lo + (long) ((double) (timeNanos - loTime) / (hiTime - loTime) * (hi - 1 - lo))
+                    : (lo + hi) >>> 1;
+            mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+            if (timeIndex.timestamp(mid) < timeNanos)
+                lo = mid + 1;
+            else
+                hi = mid;
+            interpolate = !interpolate;
+        }
+        return lo;
+    }
+
+    private TimeIndex timeIndex() {
+        TimeIndex timeIndex = this.timeIndex;
+        if (timeIndex == null)
+            throw new IllegalStateException("Timestamps are not enabled for " + name);
+        return timeIndex;
+    }
+
+    /**
+     * Map and touch the next data and index buffers in a background thread, ahead of the writer, so the writer doesn't
+     * stall calling FileChannel.map() each time it reaches a new buffer.
+     *
+     * @param backgroundMapping whether to run a background mapper thread.
+     */
+    public synchronized void backgroundMapping(boolean backgroundMapping) {
+        if (backgroundMapping == (mapper != null))
+            return;
+        if (backgroundMapping) {
+            mapper = new BackgroundMapper(this);
+            mapper.start();
+        } else {
+            mapper.close();
+            mapper = null;
+        }
+    }
+
+    public boolean backgroundMapping() {
+        return mapper != null;
+    }
+
+    /**
+     * Map and touch the buffers following the current write position. Called by the background mapper.
+     */
+    void mapAhead() {
+        long dataPosition = (header.writePosition() | dataLowMask) + 1;
+        if (dataPosition > dataMappedAhead) {
+            ByteBuffer buffer = acquireDataBuffer(dataPosition);
+            Pages.touch(buffer, 0, buffer.capacity());
+            dataMappedAhead = dataPosition;
+        }
+        long indexPosition = (indexPosition(header.nextIndex()) | indexLowMask) + 1;
+        if (indexPosition > indexMappedAhead) {
+            ByteBuffer buffer = acquireIndexBuffer(indexPosition);
+            Pages.touch(buffer, 0, buffer.capacity());
+            indexMappedAhead = indexPosition;
+        }
+    }
+
+    /**
+     * Touch the pages of the data file in a background thread, up to a distance past the write position, so the writer
+     * doesn't take a page fault the first time it writes to each page.
+     *
+     * @param distance in bytes to stay ahead of the writer, or 0 to stop the pre-toucher.
+     */
+    public synchronized void preTouch(long distance) {
+        if (preToucher != null) {
+            preToucher.close();
+            preToucher = null;
+        }
+        if (distance > 0) {
+            preToucher = new PreToucher(this, distance);
+            preToucher.start();
+        }
+    }
+
+    /**
+     * @return the distance the pre-toucher is trying to stay ahead of the writer, or 0 if it is not running.
+     */
+    public long preTouchDistance() {
+        PreToucher preToucher = this.preToucher;
+        return preToucher == null ? 0 : preToucher.distance();
+    }
+
+    /**
+     * @return how many bytes past the write position have been touched, negative if the writer has overtaken the
+     *         pre-toucher, or 0 if it is not running.
+     */
+    public long preTouchedAhead() {
+        PreToucher preToucher = this.preToucher;
+        return preToucher == null ? 0 : preToucher.touchedPosition() - writePosition();
+    }
+
+    /**
+     * @return the number of pages touched by the pre-toucher, or 0 if it is not running.
+     */
+    public long prePagesTouched() {
+        PreToucher preToucher = this.preToucher;
+        return preToucher == null ? 0 : preToucher.pagesTouched();
+    }
+
+    /**
+     * Set how excerpts are written to disk.
+     *
+     * @param durability  NONE to leave it to the OS, ASYNC to force periodically or GROUP_COMMIT to make finish() wait
+     *                    for its excerpt to be forced.
+     * @param periodNanos how often to force for ASYNC, or the longest a group commit waits for more excerpts.
+     * @param maxBatch    the most excerpts in a group commit before it is forced without waiting for the period.
+     */
+    public synchronized void durability(Durability durability, long periodNanos, int maxBatch) {
+        if (durability != Durability.NONE && periodNanos <= 0)
+            throw new IllegalArgumentException("periodNanos " + periodNanos + " must be > 0");
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("maxBatch " + maxBatch + " must be >= 1");
+        if (flusher != null) {
+            flusher.close();
+            flusher = null;
+        }
+        if (durability != Durability.NONE) {
+            flusher = new Flusher(this, durability, periodNanos, maxBatch);
+            flusher.start();
+        }
+    }
+
+    public void durability(Durability durability) {
+        durability(durability, 1000 * 1000, 64);
+    }
+
+    public Durability durability() {
+        Flusher flusher = this.flusher;
+        return flusher == null ? Durability.NONE : flusher.durability();
+    }
+
+    /**
+     * Force the excerpts written since the last sync to disk.  Only the buffers they were written to are forced.
+     */
+    public void sync() {
+        synchronized (syncLock) {
+            long dataPosition = writePosition();
+            long index = size() + 2;
+            dataFile.force(syncedDataPosition, dataPosition);
+            indexFile.force(indexPosition(syncedIndex), indexPosition(index));
+            TimeIndex timeIndex = this.timeIndex;
+            if (timeIndex != null)
+                timeIndex.force(syncedIndex, index);
+            // the last buffers can be written to again so they are forced again next time.
+            syncedDataPosition = dataPosition;
+            syncedIndex = index;
+            syncs++;
+        }
+    }
+
+    /**
+     * @return the number of times sync() has forced the files.
+     */
+    long syncs() {
+        synchronized (syncLock) {
+            return syncs;
+        }
+    }
+
+    private void committed() {
+        Flusher flusher = this.flusher;
+        if (flusher != null)
+            flusher.committed();
+        // a reader adds itself to sleepers before checking published() so one of them sees the other.
+        header.incrPublished();
+        if (header.sleepers() > 0)
+            wakeReaders();
+    }
+
+    /**
+     * Create a Wakeup so a reader can sleep until an excerpt is finished by a writer in this or any other process.
+     */
+    public Wakeup createWakeup() throws IOException {
+        return new Wakeup(header);
+    }
+
+    private void wakeReaders() {
+        synchronized (wakeLock) {
+            try {
+                if (wakeChannel == null) {
+                    wakeChannel = DatagramChannel.open();
+                    wakeChannel.configureBlocking(false);
+                }
+                long now = System.currentTimeMillis();
+                for (int slot = 0; slot < wakeAddresses.length; slot++) {
+                    // only readers asleep now, which also skips a reader which died asleep once its sleep is over.
+                    if (header.sleepUntil(slot) < now)
+                        continue;
+                    int port = header.waiterPort(slot);
+                    if (port == 0)
+                        continue;
+                    InetSocketAddress address = wakeAddresses[slot];
+                    if (address == null || address.getPort() != port)
+                        wakeAddresses[slot] = address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port);
+                    wakeBuffer.clear();
+                    wakeChannel.send(wakeBuffer, address);
+                }
+            } catch (IOException ignored) {
+                // the readers will time out instead.
+            }
+        }
+    }
+
+    /**
+     * @return the end of the last excerpt written or reserved, by any thread or process.
+     */
+    long writePosition() {
+        return header.writePosition();
+    }
+
+    /**
+     * @return whether a buffer could be in use by another thread, in which case it cannot be unmapped safely.
+     */
+    private boolean concurrentMapping() {
+        return multiWriter || mapper != null || preToucher != null || flusher != null || excerptThreads > 1;
+    }
+
     public ByteOrder byteOrder() {
         return byteOrder;
     }
 
+    /**
+     * @return whether no other process, or other Chronicle in this process, had this Chronicle open when it was opened.
+     */
+    boolean exclusive() {
+        return header.exclusive();
+    }
+
+    @Override
+    public long size() {
+        if (multiWriter)
+            return header.nextIndex();
+        // excerpts in a batch aren't visible until it is published.
+        long batchStart = this.batchStart;
+        return batchStart >= 0 ? batchStart : size;
+    }
+
+    @Override
+    public long writeIndex() {
+        return multiWriter ? header.nextIndex() : size;
+    }
+
+    /**
+     * Limit the number of index and data buffers mapped at once, each. When the limit is reached the least recently
+     * used buffer is unmapped so a reader can replay a Chronicle of any size in a fixed amount of address space.
+     * <p/>
+     * A buffer is only unmapped immediately if no Excerpt is using it and no other thread could be, i.e. there are no
+     * background threads or concurrent writers and all the Excerpts were created by one thread. Otherwise it is left
+     * for the GC to unmap.
+     *
+     * @param maxMappedBuffers of each file, or 0 for no limit.
+     */
+    public void maxMappedBuffers(int maxMappedBuffers) {
+        indexFile.maxMapped(maxMappedBuffers);
+        dataFile.maxMapped(maxMappedBuffers);
+    }
+
+    public int maxMappedBuffers() {
+        return dataFile.maxMapped();
+    }
+
+    /**
+     * @return the number of data buffers currently mapped.
+     */
+    public int mappedDataBuffers() {
+        return dataFile.mappedCount();
+    }
+
     @Override
     public Excerpt<IndexedChronicle> createExcerpt() {
-        return useUnsafe ? new UnsafeExcerpt<IndexedChronicle>(this) : new ByteBufferExcerpt<IndexedChronicle>(this);
+        AbstractExcerpt<IndexedChronicle> excerpt = spanBuffers ? new SpanningExcerpt<IndexedChronicle>(this)
+                : useUnsafe ? new UnsafeExcerpt<IndexedChronicle>(this) : new ByteBufferExcerpt<IndexedChronicle>(this);
+        synchronized (excerpts) {
+            if (excerptThread != Thread.currentThread()) {
+                excerptThread = Thread.currentThread();
+                excerptThreads++;
+            }
+            for (Iterator<WeakReference<AbstractExcerpt>> iter = excerpts.iterator(); iter.hasNext(); )
+                if (iter.next().get() == null)
+                    iter.remove();
+            excerpts.add(new WeakReference<AbstractExcerpt>(excerpt));
+        }
+        return excerpt;
+    }
+
+    /**
+     * Create a cursor to read the excerpts in [from, to) in order.
+     */
+    public RangeCursor createRange(long from, long to) {
+        return new RangeCursor(this, from, to, 1);
+    }
+
+    /**
+     * Create a cursor to read the excerpts in [from, to) from the last excerpt back to the first.
+     */
+    public RangeCursor createReverseRange(long from, long to) {
+        return new RangeCursor(this, from, to, -1);
+    }
+
+    /**
+     * Create a cursor to read every stride'th excerpt in [from, to), starting from the first or, if stride is
+     * negative, the last.
+     */
+    public RangeCursor createRange(long from, long to, long stride) {
+        return new RangeCursor(this, from, to, stride);
+    }
+
+    /**
+     * @return whether the data in [startPosition, endPosition) isn't in one buffer.
+     */
+    boolean crossesBuffer(long startPosition, long endPosition) {
+        return !spanBuffers && (startPosition & ~dataLowMask) != ((endPosition - 1) & ~dataLowMask);
+    }
+
+    private boolean excerptUsing(ByteBuffer buffer) {
+        synchronized (excerpts) {
+            for (WeakReference<AbstractExcerpt> ref : excerpts) {
+                AbstractExcerpt excerpt = ref.get();
+                if (excerpt != null && excerpt.buffer == buffer)
+                    return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public long getIndexData(long indexId) {
-        long indexOffset = indexId << indexBitSize();
+        long indexOffset = indexPosition(indexId);
         ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
         return indexBuffer.getLong((int) (indexOffset & indexLowMask));
     }
@@ -121,41 +863,14 @@ public class IndexedChronicle extends AbstractChronicle {
     protected ByteBuffer acquireIndexBuffer(long startPosition) {
         if (startPosition >= MAX_VIRTUAL_ADDRESS)
             throw new IllegalStateException("ByteOrder is incorrect.");
-        int indexBufferId = (int) (startPosition >> indexBitSize);
-        while (indexBuffers.size() <= indexBufferId) indexBuffers.add(null);
-        ByteBuffer buffer = indexBuffers.get(indexBufferId);
-        if (buffer != null)
-            return buffer;
-        try {
-//            long start = System.nanoTime();
-            MappedByteBuffer mbb = indexChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~indexLowMask, 1 << indexBitSize);
-//            long time = System.nanoTime() - start;
-//            System.out.println(Thread.currentThread().getName()+": map "+time);
-            mbb.order(byteOrder);
-            indexBuffers.set(indexBufferId, mbb);
-            return mbb;
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return indexFile.acquire(startPosition);
     }
 
     @Override
     public ByteBuffer acquireDataBuffer(long startPosition) {
         if (startPosition >= MAX_VIRTUAL_ADDRESS)
             throw new IllegalStateException("ByteOrder is incorrect.");
-        int dataBufferId = (int) (startPosition >> dataBitSize);
-        while (dataBuffers.size() <= dataBufferId) dataBuffers.add(null);
-        ByteBuffer buffer = dataBuffers.get(dataBufferId);
-        if (buffer != null)
-            return buffer;
-        try {
-            MappedByteBuffer mbb = dataChannel.map(FileChannel.MapMode.READ_WRITE, startPosition & ~dataLowMask, 1 << dataBitSize);
-            mbb.order(ByteOrder.nativeOrder());
-            dataBuffers.set(dataBufferId, mbb);
-            return mbb;
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+        return dataFile.acquire(startPosition);
     }
 
     @Override
@@ -165,27 +880,101 @@ public class IndexedChronicle extends AbstractChronicle {
 
     @Override
     public void setIndexData(long indexId, long indexData) {
-        long indexOffset = indexId << indexBitSize();
+        long indexOffset = indexPosition(indexId);
         ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
         indexBuffer.putLong((int) (indexOffset & indexLowMask), indexData);
     }
 
     @Override
     public long startExcerpt(int capacity) {
-        long startPosition = getIndexData(size);
+        long startPosition = getIndexData(size) & ~PENDING;
         assert size == 0 || startPosition != 0;
         // does it overlap a ByteBuffer barrier.
-        if ((startPosition & ~dataLowMask) != ((startPosition + capacity) & ~dataLowMask)) {
+        if (!spanBuffers && (startPosition & ~dataLowMask) != ((startPosition + capacity) & ~dataLowMask)) {
             // resize the previous entry.
             startPosition = (startPosition + dataLowMask) & ~dataLowMask;
             setIndexData(size, startPosition);
         }
+        TimeIndex timeIndex = this.timeIndex;
+        if (timeIndex != null) {
+            // keep the timestamps in order for seek(), even if the clock is adjusted.
+            long timeNanos = TimeIndex.currentTimeNanos();
+            if (size > 0)
+                timeNanos = Math.max(timeNanos, timeIndex.timestamp(size - 1));
+            timeIndex.timestamp(size, timeNanos);
+        }
         return startPosition;
     }
 
     @Override
     public void incrSize() {
         size++;
+        if (batchStart >= 0)
+            return;
+        header.commit(size, getIndexData(size));
+        committed();
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        if (!multiWriter)
+            throw new IllegalStateException("multiWriter is not enabled.");
+        // claim the first free index entry, all the entries before it have been claimed already.
+        long index = header.nextIndex();
+        while (!compareAndSwapIndexData(index + 1, 0L, CLAIMED))
+            index++;
+        header.advanceNextIndex(index + 1);
+
+        // wait for the previous writer to determine where its excerpt ends, this doesn't wait for it to finish.
+        long startData;
+        for (int spins = 0; (startData = getIndexData(index)) == CLAIMED; spins++)
+            if (spins > 100)
+                Thread.yield();
+
+        long startPosition;
+        while (true) {
+            startPosition = startData & ~PENDING;
+            // does it overlap a ByteBuffer barrier.
+            if (spanBuffers || (startPosition & ~dataLowMask) == ((startPosition + capacity) & ~dataLowMask))
+                break;
+            // resize the previous entry, keeping its PENDING flag if it hasn't finished.
+            long alignedPosition = (startPosition + dataLowMask) & ~dataLowMask;
+            if (compareAndSwapIndexData(index, startData, alignedPosition | (startData & PENDING))) {
+                startPosition = alignedPosition;
+                break;
+            }
+            startData = getIndexData(index);
+        }
+        TimeIndex timeIndex = this.timeIndex;
+        if (timeIndex != null)
+            timeIndex.timestamp(index, TimeIndex.currentTimeNanos());
+        putOrderedIndexData(index + 1, (startPosition + capacity) | PENDING);
+        header.advanceWritePosition(startPosition + capacity);
+        return index;
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        long endData;
+        do {
+            endData = getIndexData(index + 1);
+            assert endData < 0 && endData != CLAIMED;
+        } while (!compareAndSwapIndexData(index + 1, endData, endData & ~PENDING));
+        committed();
+    }
+
+    private long indexDataAddress(long indexId) {
+        long indexOffset = indexPosition(indexId);
+        ByteBuffer indexBuffer = acquireIndexBuffer(indexOffset);
+        return ((DirectBuffer) indexBuffer).address() + (indexOffset & indexLowMask);
+    }
+
+    private boolean compareAndSwapIndexData(long indexId, long expected, long indexData) {
+        return UNSAFE.compareAndSwapLong(null, indexDataAddress(indexId), expected, indexData);
+    }
+
+    private void putOrderedIndexData(long indexId, long indexData) {
+        UNSAFE.putOrderedLong(null, indexDataAddress(indexId), indexData);
     }
 
     /**
@@ -195,34 +984,53 @@ public class IndexedChronicle extends AbstractChronicle {
      */
     public void clear() {
         size = 0;
+        batchStart = -1;
+        header.batchStart(-1);
+        header.reset(0, 0);
         setIndexData(1, 0);
     }
 
     public void close() {
+        backgroundMapping(false);
+        preTouch(0);
+        durability(Durability.NONE);
+        synchronized (wakeLock) {
+            if (wakeChannel != null) {
+                try {
+                    wakeChannel.close();
+                } catch (IOException ignored) {
+                }
+                wakeChannel = null;
+            }
+        }
         try {
-            clearAll(indexChannel, indexBuffers);
+            indexFile.close();
         } finally {
-            clearAll(dataChannel, dataBuffers);
+            try {
+                dataFile.close();
+            } finally {
+                try {
+                    if (timeIndex != null)
+                        timeIndex.close();
+                } finally {
+                    header.close();
+                }
+            }
         }
     }
 
-    private void clearAll(FileChannel channel, List<MappedByteBuffer> buffers) {
+    /**
+     * *** Access the Unsafe class *****
+     */
+    private static final Unsafe UNSAFE;
+
+    static {
         try {
-            for (MappedByteBuffer buffer : buffers) {
-                if (buffer != null) {
-                    buffer.force();
-                }
-            }
-        } finally {
-            try {
-                channel.close();
-            } catch (IOException ignored) {
-            }
-            for (MappedByteBuffer buffer : buffers) {
-                if (buffer instanceof DirectBuffer)
-                    ((DirectBuffer) buffer).cleaner().clean();
-            }
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = (Unsafe) theUnsafe.get(null);
+        } catch (Exception e) {
+            throw new AssertionError(e);
         }
-        buffers.clear();
     }
 }
@@ -41,6 +41,23 @@ public class IntIndexedChronicle extends IndexedChronicle {
         return 2;
     }
 
+    @Override
+    protected int indexFormat() {
+        return ChronicleHeader.INT_INDEX;
+    }
+
+    @Override
+    public void multiWriter(boolean multiWriter) {
+        if (multiWriter)
+            throw new UnsupportedOperationException("multiWriter requires a 64-bit index.");
+        super.multiWriter(false);
+    }
+
+    @Override
+    public void startBatch() {
+        throw new UnsupportedOperationException("Batches require a 64-bit index.");
+    }
+
     @Override
     public long getIndexData(long indexId) {
         long indexOffset = indexId << indexBitSize();
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.Arrays;
+
+/**
+ * A byte oriented LZ77 codec in the style of LZ4, favouring speed over ratio.
+ * <p/>
+ * The compressed data is a series of sequences, each a token byte with the number of literals in the high four bits
+ * and the match length - MIN_MATCH in the low four bits, more length bytes if either is 15, the literals, then a two
+ * byte little endian offset back to the match.  The last sequence has only literals.
+ *
+ * @author peter.lawrey
+ */
+public enum Lz {
+    ;
+    static final int MIN_MATCH = 4;
+    static final int MAX_OFFSET = 65535;
+    // the end of the data is always literals so decompressing can't overrun.
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_BITS = 12;
+
+    /**
+     * @return the most bytes compress() can produce for length bytes.
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @param dst must have maxCompressedLength(srcLength) bytes from dstOffset.
+     * @return the length of the compressed data.
+     */
+    public static int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int ip = srcOffset, anchor = srcOffset, op = dstOffset;
+        int matchLimit = srcOffset + srcLength - LAST_LITERALS;
+        while (ip + MIN_MATCH <= matchLimit) {
+            int sequence = readInt(src, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[hash];
+            table[hash] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength])
+                matchLength++;
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+        op = writeLiterals(dst, op, src, anchor, srcOffset + srcLength - anchor, 0);
+        return op - dstOffset;
+    }
+
+    private static int writeSequence(byte[] dst, int op, byte[] src, int literals, int literalLength, int offset, int matchLength) {
+        op = writeLiterals(dst, op, src, literals, literalLength, Math.min(matchLength - MIN_MATCH, 15));
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchLength - MIN_MATCH >= 15)
+            op = writeLength(dst, op, matchLength - MIN_MATCH - 15);
+        return op;
+    }
+
+    private static int writeLiterals(byte[] dst, int op, byte[] src, int literals, int literalLength, int matchToken) {
+        dst[op++] = (byte) ((Math.min(literalLength, 15) << 4) | matchToken);
+        if (literalLength >= 15)
+            op = writeLength(dst, op, literalLength - 15);
+        System.arraycopy(src, literals, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        for (; length >= 255; length -= 255)
+            dst[op++] = (byte) 255;
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * @return the length of the decompressed data.
+     * @throws IllegalStateException if the data is corrupt or doesn't fit in dst.
+     */
+    public static int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) {
+        int ip = srcOffset, end = srcOffset + srcLength, op = dstOffset, dstEnd = dstOffset + dstLength;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (op + literalLength > dstEnd || ip + literalLength > end)
+                    throw new IllegalStateException("Corrupt compressed data, literals overrun at " + (ip - srcOffset));
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= end)
+                    break;
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOffset || op + matchLength > dstEnd)
+                    throw new IllegalStateException("Corrupt compressed data, bad match at " + (ip - srcOffset));
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                } else {
+                    // the match overlaps the bytes it is copying, e.g. a run of one byte.
+                    for (int i = 0; i < matchLength; i++)
+                        dst[op + i] = dst[ref + i];
+                }
+                op += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupt compressed data, truncated", e);
+        }
+        return op - dstOffset;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16) | (bytes[offset + 3] << 24);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import sun.nio.ch.DirectBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A file mapped as a series of 2^bitSize buffers as they are needed.
+ * <p/>
+ * Any number of threads can look up buffers concurrently. Finding a buffer already mapped doesn't lock, only mapping a
+ * new buffer does.
+ * <p/>
+ * The number of buffers mapped at once can be limited, in which case the least recently used buffer is dropped to map
+ * another one.  A dropped buffer is unmapped immediately unless it could still be in use.
+ *
+ * @author peter.lawrey
+ */
+abstract class MappedFile {
+    // a byte past any data locked while the file is extended.
+    private static final long EXTEND_LOCK_POSITION = Long.MAX_VALUE - 1;
+    private final FileChannel channel;
+    private final int bitSize;
+    private final ByteOrder byteOrder;
+    private final boolean readOnly;
+    private volatile Table table = new Table(16);
+    private long ticks = 0;
+    private int mappedCount = 0;
+    private volatile int maxMapped = 0;
+
+    MappedFile(FileChannel channel, int bitSize, ByteOrder byteOrder) {
+        this(channel, bitSize, byteOrder, false);
+    }
+
+    /**
+     * @param readOnly if the file is mapped read only, the last buffer ends at the end of the file rather than
+     *                 extending it.
+     */
+    MappedFile(FileChannel channel, int bitSize, ByteOrder byteOrder, boolean readOnly) {
+        this.channel = channel;
+        this.bitSize = bitSize;
+        this.byteOrder = byteOrder;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @param maxMapped the most buffers to keep mapped, or 0 for no limit.
+     */
+    synchronized void maxMapped(int maxMapped) {
+        if (maxMapped < 0)
+            throw new IllegalArgumentException("maxMapped " + maxMapped + " must be >= 0");
+        this.maxMapped = maxMapped;
+        while (maxMapped > 0 && mappedCount > maxMapped)
+            evictLeastRecentlyUsed(table);
+    }
+
+    int maxMapped() {
+        return maxMapped;
+    }
+
+    synchronized int mappedCount() {
+        return mappedCount;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    ByteBuffer acquire(long startPosition) {
+        int bufferId = (int) (startPosition >> bitSize);
+        Table table = this.table;
+        if (bufferId < table.buffers.length()) {
+            ByteBuffer buffer = table.buffers.get(bufferId);
+            if (buffer != null) {
+                // racy but a lost update only makes the LRU order approximate.
+                if (maxMapped > 0)
+                    table.lastUsed[bufferId] = ++ticks;
+                return buffer;
+            }
+        }
+        return acquire0(bufferId);
+    }
+
+    private synchronized ByteBuffer acquire0(int bufferId) {
+        Table table = this.table;
+        if (bufferId >= table.buffers.length())
+            this.table = table = table.grow(bufferId + 1);
+        MappedByteBuffer buffer = table.buffers.get(bufferId);
+        if (buffer != null)
+            return buffer;
+        if (maxMapped > 0 && mappedCount >= maxMapped)
+            evictLeastRecentlyUsed(table);
+        try {
+//            long start = System.nanoTime();
+            long position = (long) bufferId << bitSize;
+            MappedByteBuffer mbb = readOnly ? mapReadOnly(position)
+                    : channel.size() >= position + (1 << bitSize)
+                    ? channel.map(FileChannel.MapMode.READ_WRITE, position, 1 << bitSize)
+                    : mapExtending(position);
+//            long time = System.nanoTime() - start;
+//            System.out.println(Thread.currentThread().getName()+": map "+time);
+            mbb.order(byteOrder);
+            table.lastUsed[bufferId] = ++ticks;
+            table.buffers.set(bufferId, mbb);
+            mappedCount++;
+            return mbb;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MappedByteBuffer mapReadOnly(long position) throws IOException {
+        long length = Math.min(1 << bitSize, channel.size() - position);
+        if (length <= 0)
+            throw new IllegalStateException("Position " + position + " is past the end of a read only file.");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * map() extends the file with ftruncate which shrinks it if another mapping of the file, in this or another
+     * process, extended it further after map() checked the size, losing what was written there. So files are only
+     * extended while holding a lock.
+     */
+    private MappedByteBuffer mapExtending(long position) throws IOException {
+        FileLock lock = null;
+        while (lock == null) {
+            try {
+                lock = channel.lock(EXTEND_LOCK_POSITION, 1, false);
+            } catch (OverlappingFileLockException e) {
+                // another mapping of the file in this process is extending it.
+                Thread.yield();
+            }
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, 1 << bitSize);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void evictLeastRecentlyUsed(Table table) {
+        int lruId = -1;
+        for (int i = 0; i < table.buffers.length(); i++)
+            if (table.buffers.get(i) != null && (lruId < 0 || table.lastUsed[i] < table.lastUsed[lruId]))
+                lruId = i;
+        if (lruId < 0)
+            return;
+        MappedByteBuffer buffer = table.buffers.getAndSet(lruId, null);
+        mappedCount--;
+        // dirty pages are still written back by the OS after unmapping.
+        if (!inUse(buffer))
+            ((DirectBuffer) buffer).cleaner().clean();
+    }
+
+    /**
+     * Force the buffers overlapping a range of the file to disk.  If a buffer in the range has been unmapped, the whole
+     * file is forced instead.
+     */
+    void force(long fromPosition, long toPosition) {
+        if (toPosition <= fromPosition)
+            return;
+        Table table = this.table;
+        int lastId = (int) ((toPosition - 1) >> bitSize);
+        boolean unmapped = lastId >= table.buffers.length();
+        for (int i = (int) (fromPosition >> bitSize); i <= lastId && i < table.buffers.length(); i++) {
+            MappedByteBuffer buffer = table.buffers.get(i);
+            if (buffer == null)
+                unmapped = true;
+            else
+                buffer.force();
+        }
+        if (unmapped) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return whether a buffer being dropped could still be accessed. If so it is left for the GC to unmap.
+     */
+    protected abstract boolean inUse(ByteBuffer buffer);
+
+    synchronized void close() {
+        AtomicReferenceArray<MappedByteBuffer> buffers = table.buffers;
+        try {
+            for (int i = 0; i < buffers.length(); i++) {
+                MappedByteBuffer buffer = buffers.get(i);
+                if (buffer != null) {
+                    buffer.force();
+                }
+            }
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            for (int i = 0; i < buffers.length(); i++) {
+                MappedByteBuffer buffer = buffers.getAndSet(i, null);
+                if (buffer instanceof DirectBuffer)
+                    ((DirectBuffer) buffer).cleaner().clean();
+            }
+        }
+        mappedCount = 0;
+    }
+
+    /**
+     * The buffers and when they were last used. Replaced with a larger copy as the file grows.
+     */
+    static class Table {
+        final AtomicReferenceArray<MappedByteBuffer> buffers;
+        final long[] lastUsed;
+
+        Table(int length) {
+            buffers = new AtomicReferenceArray<MappedByteBuffer>(length);
+            lastUsed = new long[length];
+        }
+
+        Table grow(int minLength) {
+            Table table = new Table(Math.max(minLength, buffers.length() * 2));
+            for (int i = 0; i < buffers.length(); i++) {
+                table.buffers.set(i, buffers.get(i));
+                table.lastUsed[i] = lastUsed[i];
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for faulting in the pages of a mapped buffer before they are needed.
+ *
+ * @author peter.lawrey
+ */
+enum Pages {
+    ;
+    static final int PAGE_SIZE;
+
+    /**
+     * Fault in the pages of [from, to) for writing without changing their contents.
+     * <p/>
+     * A CAS of 0 to 0 dirties the page the same way a write would, but cannot overwrite data written concurrently.
+     *
+     * @return the number of pages touched.
+     */
+    static int touch(ByteBuffer buffer, int from, int to) {
+        long address = ((DirectBuffer) buffer).address();
+        int count = 0;
+        for (int offset = from & -PAGE_SIZE; offset < to; offset += PAGE_SIZE, count++)
+            UNSAFE.compareAndSwapInt(null, address + offset, 0, 0);
+        return count;
+    }
+
+    /**
+     * Fault in the pages of [from, to) for reading.
+     *
+     * @return a value derived from the bytes read so the reads are not optimised away.
+     */
+    static int prefetch(ByteBuffer buffer, int from, int to) {
+        long address = ((DirectBuffer) buffer).address();
+        int sum = 0;
+        for (int offset = from & -PAGE_SIZE; offset < to; offset += PAGE_SIZE)
+            sum += UNSAFE.getByte(address + offset);
+        return sum;
+    }
+
+    /**
+     * *** Access the Unsafe class *****
+     */
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = (Unsafe) theUnsafe.get(null);
+            PAGE_SIZE = UNSAFE.pageSize();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
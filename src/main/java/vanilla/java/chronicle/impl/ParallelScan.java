@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Scans a range of an IndexedChronicle with a number of threads, each reading its own sub-range with its own
+ * RangeCursor, and combines the results in index order.
+ *
+ * @author peter.lawrey
+ */
+public enum ParallelScan {
+    ;
+
+    /**
+     * Scan with a thread per processor.
+     */
+    public static <R> R scan(IndexedChronicle chronicle, long from, long to, ExcerptReducer<R> reducer) throws InterruptedException {
+        final String name = chronicle.name();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int id = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-scan-" + id++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            // more tasks than threads so a slow range doesn't hold up the rest.
+            return scan(executor, threads * 4, chronicle, from, to, reducer);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @param executor to run the tasks.
+     * @param tasks    the number of sub-ranges to split [from, to) into.
+     * @return the combined result of every excerpt in [from, to).
+     */
+    public static <R> R scan(ExecutorService executor, int tasks, final IndexedChronicle chronicle, long from, long to,
+                             final ExcerptReducer<R> reducer) throws InterruptedException {
+        if (tasks < 1)
+            throw new IllegalArgumentException("tasks " + tasks + " must be >= 1");
+        to = Math.min(to, chronicle.size());
+        if (to <= from)
+            return reducer.initial();
+        long chunk = (to - from + tasks - 1) / tasks;
+        List<Future<R>> futures = new ArrayList<Future<R>>();
+        for (long start = from; start < to; start += chunk) {
+            final long rangeFrom = start, rangeTo = Math.min(to, start + chunk);
+            futures.add(executor.submit(new Callable<R>() {
+                @Override
+                public R call() {
+                    RangeCursor cursor = chronicle.createRange(rangeFrom, rangeTo);
+                    R result = reducer.initial();
+                    while (cursor.next())
+                        result = reducer.accumulate(result, cursor.excerpt());
+                    return result;
+                }
+            }));
+        }
+        try {
+            R result = futures.get(0).get();
+            for (int i = 1; i < futures.size(); i++)
+                result = reducer.combine(result, futures.get(i).get());
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<R> future : futures)
+                future.cancel(true);
+        }
+    }
+}
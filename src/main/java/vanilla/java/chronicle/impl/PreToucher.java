@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Touches the data pages a fixed distance ahead of the write position so the writer doesn't take a page fault the first
+ * time it writes to each page.
+ *
+ * @author peter.lawrey
+ */
+class PreToucher implements Runnable {
+    private static final long POLL_NS = 20 * 1000;
+
+    private final IndexedChronicle chronicle;
+    private final long distance;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile long touchedPosition = 0;
+    private volatile long pagesTouched = 0;
+
+    PreToucher(IndexedChronicle chronicle, long distance) {
+        this.chronicle = chronicle;
+        this.distance = distance;
+        thread = new Thread(this, chronicle.name() + "-pretoucher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            long position = 0;
+            while (!closed) {
+                long writePosition = chronicle.writePosition();
+                if (position < writePosition)
+                    position = writePosition & -Pages.PAGE_SIZE;
+                long end = writePosition + distance;
+                if (position >= end) {
+                    LockSupport.parkNanos(POLL_NS);
+                    continue;
+                }
+                // touch one page at a time so a fast writer is noticed.
+                ByteBuffer buffer = chronicle.acquireDataBuffer(position);
+                int offset = chronicle.positionInBuffer(position);
+                Pages.touch(buffer, offset, offset + 1);
+                position += Pages.PAGE_SIZE;
+                touchedPosition = position;
+                pagesTouched++;
+            }
+        } catch (RuntimeException e) {
+            if (!closed)
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, chronicle.name() + " pre-toucher dying", e);
+        }
+    }
+
+    long distance() {
+        return distance;
+    }
+
+    /**
+     * @return the position up to which pages have been touched.
+     */
+    long touchedPosition() {
+        return touchedPosition;
+    }
+
+    long pagesTouched() {
+        return pagesTouched;
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
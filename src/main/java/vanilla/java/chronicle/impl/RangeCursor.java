@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the excerpts of an IndexedChronicle in [from, to) in order, for replaying history quickly.
+ * <p/>
+ * The end of each excerpt is the start of the next, so only one index entry is read per excerpt. The data pages ahead
+ * of the cursor are faulted in before they are read.
+ * <p/>
+ * A cursor can also read in reverse, from to - 1 down to from, which also reads one index entry per excerpt and faults
+ * in the index and data before the cursor.  Or it can skip ahead by a stride, faulting in the next excerpt's data each
+ * time.
+ * <p/>
+ * A RangeCursor is used by one thread.
+ *
+ * @author peter.lawrey
+ */
+public class RangeCursor {
+    public static final long DEFAULT_PREFETCH_DISTANCE = 256 * 1024;
+
+    private final IndexedChronicle chronicle;
+    private final AbstractExcerpt excerpt;
+    private final long from;
+    private final long to;
+    private final long stride;
+    private long index;
+    // the start of the next excerpt going forward, or the end of the next excerpt in reverse.
+    private long nextPosition = -1;
+    private long prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private long prefetchedPosition = -1;
+    private long prefetchedIndex = -1;
+    private int prefetchSum = 0;
+
+    RangeCursor(IndexedChronicle chronicle, long from, long to, long stride) {
+        if (from < 0 || to < from)
+            throw new IllegalArgumentException("Invalid range " + from + " to " + to);
+        if (stride == 0)
+            throw new IllegalArgumentException("stride cannot be 0");
+        this.chronicle = chronicle;
+        this.from = from;
+        this.stride = stride;
+        // in reverse, start from the last excerpt written.
+        this.to = stride < 0 ? Math.min(to, chronicle.size()) : to;
+        index = stride > 0 ? from : this.to - 1;
+        excerpt = (AbstractExcerpt) chronicle.createExcerpt();
+    }
+
+    /**
+     * @param prefetchDistance how far ahead of the cursor to fault in the data, or 0 to not prefetch.
+     */
+    public void prefetchDistance(long prefetchDistance) {
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    public long prefetchDistance() {
+        return prefetchDistance;
+    }
+
+    public long stride() {
+        return stride;
+    }
+
+    /**
+     * Move to the next excerpt in the range.
+     *
+     * @return true if excerpt() is the next excerpt, or false if the end of the range or of the Chronicle was reached.
+     *         If the Chronicle is still being written, next() can be called again later.
+     */
+    public boolean next() {
+        if (index < from || index >= to)
+            return false;
+        return stride == 1 ? nextForward() : stride == -1 ? nextReverse() : nextStride();
+    }
+
+    private boolean nextForward() {
+        long endPosition = chronicle.getIndexData(index + 1);
+        // zero is not written yet, negative is CLAIMED or PENDING.
+        if (endPosition <= 0 || chronicle.unpublished(index))
+            return false;
+        long startPosition = nextPosition;
+        // the previous end can have been padded to the next buffer after it was read.
+        if (startPosition < 0 || chronicle.crossesBuffer(startPosition, endPosition))
+            startPosition = chronicle.getIndexData(index) & ~DirectChronicle.PENDING;
+        if (prefetchDistance > 0)
+            prefetch(endPosition);
+        excerpt.index(index, startPosition, endPosition);
+        nextPosition = endPosition;
+        index++;
+        return true;
+    }
+
+    private boolean nextReverse() {
+        // the end of this excerpt is the start of the one read before it.
+        long endPosition = nextPosition < 0 ? chronicle.getIndexData(index + 1) : nextPosition;
+        if (endPosition <= 0 || (nextPosition < 0 && chronicle.unpublished(index)))
+            return false;
+        long startPosition = chronicle.getIndexData(index) & ~DirectChronicle.PENDING;
+        if (prefetchDistance > 0)
+            prefetchReverse(startPosition);
+        excerpt.index(index, startPosition, endPosition);
+        nextPosition = startPosition;
+        index--;
+        return true;
+    }
+
+    private boolean nextStride() {
+        long endPosition = chronicle.getIndexData(index + 1);
+        if (endPosition <= 0 || chronicle.unpublished(index))
+            return false;
+        long startPosition = chronicle.getIndexData(index) & ~DirectChronicle.PENDING;
+        excerpt.index(index, startPosition, endPosition);
+        index += stride;
+        // fault in the index entry and data of the next excerpt while this one is read.
+        if (prefetchDistance > 0 && index >= from && index < to) {
+            long nextStart = chronicle.getIndexData(index) & ~DirectChronicle.PENDING;
+            if (nextStart < chronicle.writePosition())
+                prefetchSum += chronicle.acquireDataBuffer(nextStart).get(chronicle.positionInBuffer(nextStart));
+        }
+        return true;
+    }
+
+    private void prefetch(long endPosition) {
+        long prefetchTo = Math.min(endPosition + prefetchDistance, chronicle.writePosition());
+        long position = Math.max(prefetchedPosition, endPosition);
+        while (position < prefetchTo) {
+            ByteBuffer buffer = chronicle.acquireDataBuffer(position);
+            int offset = chronicle.positionInBuffer(position);
+            int length = (int) Math.min(prefetchTo - position, buffer.capacity() - offset);
+            prefetchSum += Pages.prefetch(buffer, offset, offset + length);
+            position += length;
+        }
+        prefetchedPosition = position;
+    }
+
+    private void prefetchReverse(long startPosition) {
+        // the data before the cursor.
+        long prefetchFrom = Math.max(0, startPosition - prefetchDistance);
+        long position = prefetchedPosition < 0 ? startPosition : Math.min(prefetchedPosition, startPosition);
+        while (position > prefetchFrom) {
+            ByteBuffer buffer = chronicle.acquireDataBuffer(position - 1);
+            int offset = chronicle.positionInBuffer(position - 1) + 1;
+            int length = (int) Math.min(position - prefetchFrom, offset);
+            prefetchSum += Pages.prefetch(buffer, offset - length, offset);
+            position -= length;
+        }
+        prefetchedPosition = position;
+
+        // and the index entries before the cursor.
+        int indexBitSize = chronicle.indexBitSize();
+        long indexFrom = Math.max(from, index - (prefetchDistance >> indexBitSize));
+        if (prefetchedIndex < 0 || indexFrom < prefetchedIndex) {
+            for (long i = prefetchedIndex < 0 ? index : prefetchedIndex; i > indexFrom; i -= Pages.PAGE_SIZE >> indexBitSize)
+                prefetchSum += (int) chronicle.getIndexData(i - 1);
+            prefetchedIndex = indexFrom;
+        }
+    }
+
+    public Excerpt excerpt() {
+        return excerpt;
+    }
+
+    /**
+     * @return the index of the next excerpt to read.
+     */
+    public long index() {
+        return index;
+    }
+
+    /**
+     * @return the number of excerpts left to read, including any not written yet.
+     */
+    public long remaining() {
+        if (index < from || index >= to)
+            return 0;
+        return stride > 0 ? (to - index - 1) / stride + 1 : (index - from) / -stride + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeCursor{index=" + index + ", from=" + from + ", to=" + to + ", stride=" + stride + '}';
+    }
+}
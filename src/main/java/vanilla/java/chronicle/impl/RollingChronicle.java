@@ -0,0 +1,714 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Chronicle which writes a new IndexedChronicle for each cycle of time, e.g. each day or hour, in the directory
+ * basePath.  Each cycle is named after the time it starts, in GMT.
+ * <p/>
+ * The index of an excerpt holds the cycle in the top bits and the index within the cycle in the lower CYCLE_SHIFT bits,
+ * so indexes are not contiguous between cycles. Use Excerpt.nextIndex() to read from one cycle to the next.  Positions
+ * in the data are encoded the same way.  Cycles are counted from epochMillis, which must be recent enough for the
+ * cycle to fit in the remaining MAX_CYCLE_BITS, e.g. 1970 is fine for DAILY or HOURLY cycles but not MINUTELY ones.
+ * <p/>
+ * Only a few cycles are kept open at once, an older cycle is closed when no Excerpt is reading it and no call on it is in
+ * progress, so another thread never reads a cycle after it has been unmapped.  Old cycles can be deleted by age or
+ * total size with maxRetentionAge() and maxRetentionSize(), or compressed with compactCycles() and read as a
+ * CompressedChronicle.
+ *
+ * @author peter.lawrey
+ */
+public class RollingChronicle extends AbstractChronicle {
+    public static final long MINUTELY = 60 * 1000L;
+    public static final long HOURLY = 60 * MINUTELY;
+    public static final long DAILY = 24 * HOURLY;
+    public static final int CYCLE_SHIFT = 40;
+    private static final long LOW_MASK = (1L << CYCLE_SHIFT) - 1;
+    // the cycle must not reach the sign bit of an index.
+    public static final int MAX_CYCLE_BITS = 63 - CYCLE_SHIFT;
+    private static final long MAX_CYCLE = (1L << MAX_CYCLE_BITS) - 1;
+    private static final long LIST_INTERVAL_MS = 10;
+
+    private final String basePath;
+    private final int dataBitSizeHint;
+    private final ByteOrder byteOrder;
+    private final long cycleLength;
+    private final long epochMillis;
+    private final String cycleFormat;
+    private final SortedSet<Long> cycles = new TreeSet<Long>();
+    private final LinkedHashMap<Long, CycleChronicle> openCycles = new LinkedHashMap<Long, CycleChronicle>(16, 0.75f, true);
+    private final List<WeakReference<AbstractExcerpt>> excerpts = new ArrayList<WeakReference<AbstractExcerpt>>();
+    private volatile CycleChronicle lastUsed = null;
+    private long lastListed = 0;
+    private int maxOpenCycles = 4;
+    private boolean useUnsafe = false;
+    private long maxRetentionAge = Long.MAX_VALUE;
+    private long maxRetentionSize = Long.MAX_VALUE;
+    private long writeCycle = -1;
+    // the cycles being compressed by compactCycles(), which are closed and not opened until it has finished.
+    private final Set<Long> compacting = new HashSet<Long>();
+    private volatile CycleChronicle writer = null;
+    // guarded by backgroundLock, not this, as the background threads lock this.
+    private final Object backgroundLock = new Object();
+    private BackgroundCompactor compactor = null;
+    private BackgroundRetention retention = null;
+
+    public RollingChronicle(String basePath, int dataBitSizeHint, long cycleLength) throws IOException {
+        this(basePath, dataBitSizeHint, cycleLength, ByteOrder.nativeOrder());
+    }
+
+    public RollingChronicle(String basePath, int dataBitSizeHint, long cycleLength, ByteOrder byteOrder) throws IOException {
+        this(basePath, dataBitSizeHint, cycleLength, byteOrder, 0);
+    }
+
+    /**
+     * @param epochMillis the start of cycle 0, a whole number of cycles since 1970.
+     */
+    public RollingChronicle(String basePath, int dataBitSizeHint, long cycleLength, ByteOrder byteOrder, long epochMillis) throws IOException {
+        super(new File(basePath).getName());
+        if (cycleLength < 1000 || cycleLength % 1000 != 0)
+            throw new IllegalArgumentException("cycleLength " + cycleLength + " must be a whole number of seconds");
+        if (epochMillis < 0 || epochMillis % cycleLength != 0)
+            throw new IllegalArgumentException("epochMillis " + epochMillis + " must be a whole number of cycles since 1970");
+        this.basePath = basePath;
+        this.dataBitSizeHint = dataBitSizeHint;
+        this.byteOrder = byteOrder;
+        this.cycleLength = cycleLength;
+        this.epochMillis = epochMillis;
+        if (currentCycle() > MAX_CYCLE)
+            throw new IllegalArgumentException("The current cycle " + currentCycle() + " of " + cycleLength
+                    + " ms doesn't fit in " + MAX_CYCLE_BITS + " bits, use a later epochMillis");
+        cycleFormat = cycleLength % DAILY == 0 ? "yyyyMMdd"
+                : cycleLength % HOURLY == 0 ? "yyyyMMdd-HH"
+                : cycleLength % MINUTELY == 0 ? "yyyyMMdd-HHmm"
+                : "yyyyMMdd-HHmmss";
+        File dir = new File(basePath);
+        dir.mkdirs();
+        if (!dir.isDirectory())
+            throw new IOException("Unable to create directory " + basePath);
+        listCycles();
+        // continue writing the last cycle until the next one starts.
+        if (!cycles.isEmpty()) {
+            writeCycle = cycles.last();
+            CycleChronicle cc = acquireCycle(writeCycle, false);
+            cc.release();
+            // unless it has been compressed.
+            if (cc.chronicle instanceof IndexedChronicle)
+                writer = cc;
+        }
+    }
+
+    public static long cycleOf(long index) {
+        return index >>> CYCLE_SHIFT;
+    }
+
+    public static long indexInCycle(long index) {
+        return index & LOW_MASK;
+    }
+
+    public static long index(long cycle, long indexInCycle) {
+        return (cycle << CYCLE_SHIFT) | indexInCycle;
+    }
+
+    public long cycleLength() {
+        return cycleLength;
+    }
+
+    public long epochMillis() {
+        return epochMillis;
+    }
+
+    /**
+     * @return the time in milliseconds used to determine the current cycle.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public long currentCycle() {
+        return (currentTimeMillis() - epochMillis) / cycleLength;
+    }
+
+    /**
+     * @return the name of the files for a cycle, without the extension.
+     */
+    public String cycleName(long cycle) {
+        return cycleDateFormat().format(new Date(epochMillis + cycle * cycleLength));
+    }
+
+    private SimpleDateFormat cycleDateFormat() {
+        SimpleDateFormat sdf = new SimpleDateFormat(cycleFormat);
+        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        sdf.setLenient(false);
+        return sdf;
+    }
+
+    /**
+     * @return the cycles which have been written, oldest first.
+     */
+    public synchronized SortedSet<Long> cycles() {
+        listCycles();
+        return new TreeSet<Long>(cycles);
+    }
+
+    private synchronized void listCycles() {
+        lastListed = System.currentTimeMillis();
+        String[] names = new File(basePath).list();
+        if (names == null)
+            return;
+        SimpleDateFormat sdf = cycleDateFormat();
+        for (String name : names) {
+            if (!name.endsWith(".index"))
+                continue;
+            ParsePosition pp = new ParsePosition(0);
+            String cycleName = name.substring(0, name.length() - ".index".length());
+            Date date = sdf.parse(cycleName, pp);
+            // cycles before the epoch cannot be read.
+            if (date != null && pp.getIndex() == cycleName.length() && date.getTime() >= epochMillis)
+                cycles.add((date.getTime() - epochMillis) / cycleLength);
+        }
+    }
+
+    /**
+     * @param maxOpenCycles the number of cycles to keep open before closing the least recently used.
+     */
+    public void maxOpenCycles(int maxOpenCycles) {
+        if (maxOpenCycles < 1)
+            throw new IllegalArgumentException("maxOpenCycles " + maxOpenCycles + " must be >= 1");
+        this.maxOpenCycles = maxOpenCycles;
+    }
+
+    public int maxOpenCycles() {
+        return maxOpenCycles;
+    }
+
+    /**
+     * @param maxRetentionAge the age in milliseconds after the end of a cycle before it is deleted.
+     */
+    public void maxRetentionAge(long maxRetentionAge) {
+        if (maxRetentionAge < 0)
+            throw new IllegalArgumentException("maxRetentionAge " + maxRetentionAge + " must be >= 0");
+        this.maxRetentionAge = maxRetentionAge;
+    }
+
+    public long maxRetentionAge() {
+        return maxRetentionAge;
+    }
+
+    /**
+     * @param maxRetentionSize the size in bytes of all the cycles' files, above which the oldest cycles are deleted.
+     */
+    public void maxRetentionSize(long maxRetentionSize) {
+        if (maxRetentionSize < 0)
+            throw new IllegalArgumentException("maxRetentionSize " + maxRetentionSize + " must be >= 0");
+        this.maxRetentionSize = maxRetentionSize;
+    }
+
+    public long maxRetentionSize() {
+        return maxRetentionSize;
+    }
+
+    /**
+     * Delete the oldest cycles which are older than maxRetentionAge, or while the cycles use more than
+     * maxRetentionSize.  This is called in a background thread each time the writer starts a new cycle.
+     * <p/>
+     * Only the oldest cycles are deleted so the remaining excerpts keep their indexes.  Deleting stops at the first
+     * cycle which is being written or read by an Excerpt of this chronicle.  Another process with a deleted cycle
+     * mapped can keep reading it until it moves on.
+     *
+     * @return the number of cycles deleted.
+     */
+    public synchronized int applyRetention() {
+        listCycles();
+        long oldestEnd = currentTimeMillis() - maxRetentionAge;
+        long totalSize = 0;
+        if (maxRetentionSize < Long.MAX_VALUE)
+            for (long cycle : cycles)
+                totalSize += cycleSize(cycle);
+        int deleted = 0;
+        for (Iterator<Long> iter = cycles.iterator(); iter.hasNext(); ) {
+            long cycle = iter.next();
+            boolean tooOld = epochMillis + (cycle + 1) * cycleLength <= oldestEnd;
+            if (!tooOld && totalSize <= maxRetentionSize)
+                break;
+            if (cycle == writeCycle || compacting.contains(cycle) || !closeCycle(cycle))
+                break;
+            long size = cycleSize(cycle);
+            for (File file : cycleFiles(cycle))
+                file.delete();
+            iter.remove();
+            totalSize -= size;
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * @return whether the cycle is closed, false if an Excerpt is reading it.
+     */
+    private boolean closeCycle(long cycle) {
+        CycleChronicle cc = openCycles.get(cycle);
+        if (cc == null)
+            return !excerptReading(cycle);
+        if (!tryClose(cc))
+            return false;
+        openCycles.remove(cycle);
+        return true;
+    }
+
+    /**
+     * Wait for the calls in progress on a cycle to finish and close it, unless an Excerpt is reading it.  Must be called
+     * holding this lock so no thread can acquire the cycle through openCycles meanwhile.
+     */
+    private boolean tryClose(CycleChronicle cc) {
+        if (lastUsed == cc)
+            lastUsed = null;
+        // calls only hold a cycle briefly and new ones can't start, so this doesn't spin for long.
+        while (!cc.users.compareAndSet(1, 0))
+            Thread.yield();
+        // an Excerpt sets its index before reading the cycle, and releasing it makes the index visible here.
+        if (excerptReading(cc.cycle)) {
+            cc.users.set(1);
+            return false;
+        }
+        cc.chronicle.close();
+        return true;
+    }
+
+    /**
+     * Compress the data of every cycle before the current one with ChronicleCompressor, so it takes less space and is
+     * read as a CompressedChronicle.  Cycles being read by an Excerpt of this chronicle or open in another process are
+     * skipped, any other failure to compress a cycle is thrown.
+     *
+     * <p/>
+     * Only closing a cycle holds this lock, a cycle is compressed without it so the writer and readers of other cycles
+     * are not held up.  Opening a cycle being compressed waits for it to finish.
+     *
+     * @return the number of cycles compressed.
+     */
+    public int compactCycles() {
+        List<Long> cycles;
+        synchronized (this) {
+            listCycles();
+            cycles = new ArrayList<Long>(this.cycles);
+        }
+        int compacted = 0;
+        for (long cycle : cycles) {
+            String cyclePath = cyclePath(cycle);
+            synchronized (this) {
+                if (cycle >= currentCycle() || cycle == writeCycle)
+                    break;
+                if (compacting.contains(cycle) || new File(cyclePath + ".cdata").exists() || !closeCycle(cycle))
+                    continue;
+                compacting.add(cycle);
+            }
+            try {
+                // skipped if open in another process, or its excerpts span buffers.
+                if (ChronicleCompressor.compressIfPossible(cyclePath, dataBitSizeHint, byteOrder) >= 0)
+                    compacted++;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                synchronized (this) {
+                    compacting.remove(cycle);
+                    notifyAll();
+                }
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Call compactCycles() periodically in a background thread.
+     *
+     * @param periodMillis between compactions, or 0 to stop.
+     */
+    public void backgroundCompaction(long periodMillis) {
+        if (periodMillis < 0)
+            throw new IllegalArgumentException("periodMillis " + periodMillis + " must be >= 0");
+        synchronized (backgroundLock) {
+            if (compactor != null) {
+                compactor.close();
+                compactor = null;
+            }
+            if (periodMillis > 0) {
+                compactor = new BackgroundCompactor(this, periodMillis);
+                compactor.start();
+            }
+        }
+    }
+
+    public long backgroundCompaction() {
+        synchronized (backgroundLock) {
+            return compactor == null ? 0 : compactor.periodMillis();
+        }
+    }
+
+    private String cyclePath(long cycle) {
+        return basePath + File.separator + cycleName(cycle);
+    }
+
+    private File[] cycleFiles(long cycle) {
+        String name = cycleName(cycle);
+        return new File[]{
+                new File(basePath, name + ".index"),
+                new File(basePath, name + ".data"),
+                new File(basePath, name + ".cdata"),
+                new File(basePath, name + ".header"),
+                new File(basePath, name + ".time")
+        };
+    }
+
+    private long cycleSize(long cycle) {
+        long size = 0;
+        for (File file : cycleFiles(cycle))
+            size += file.length();
+        return size;
+    }
+
+    public synchronized int openCycles() {
+        return openCycles.size();
+    }
+
+    /**
+     * The cycle returned must be released once the call on it has finished, so it isn't closed while in use.
+     *
+     * @param cycle  to get the chronicle for.
+     * @param create whether to create the cycle if it doesn't exist.
+     * @return the chronicle for the cycle or null if it doesn't exist and wasn't created.
+     */
+    private CycleChronicle acquireCycle(long cycle, boolean create) {
+        CycleChronicle lastUsed = this.lastUsed;
+        if (lastUsed != null && lastUsed.cycle == cycle && lastUsed.acquire())
+            return lastUsed;
+        return acquireCycle0(cycle, create);
+    }
+
+    private synchronized CycleChronicle acquireCycle0(long cycle, boolean create) {
+        while (compacting.contains(cycle)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        CycleChronicle cc = openCycles.get(cycle);
+        if (cc == null) {
+            if (!create && !cycles.contains(cycle)) {
+                if (System.currentTimeMillis() - lastListed < LIST_INTERVAL_MS)
+                    return null;
+                listCycles();
+                if (!cycles.contains(cycle))
+                    return null;
+            }
+            DirectChronicle chronicle;
+            try {
+                String cyclePath = cyclePath(cycle);
+                if (new File(cyclePath + ".cdata").exists()) {
+                    CompressedChronicle compressed = new CompressedChronicle(cyclePath);
+                    compressed.useUnsafe(useUnsafe);
+                    chronicle = compressed;
+                } else {
+                    chronicle = new IndexedChronicle(cyclePath, dataBitSizeHint, byteOrder);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            cc = new CycleChronicle(cycle, chronicle);
+            openCycles.put(cycle, cc);
+            cycles.add(cycle);
+        }
+        if (openCycles.size() > maxOpenCycles)
+            closeOldCycles(cycle);
+        // can't fail as cycles are only closed holding this lock.
+        cc.acquire();
+        lastUsed = cc;
+        return cc;
+    }
+
+    private void closeOldCycles(long acquiredCycle) {
+        for (Iterator<Map.Entry<Long, CycleChronicle>> iter = openCycles.entrySet().iterator();
+             openCycles.size() > maxOpenCycles && iter.hasNext(); ) {
+            Map.Entry<Long, CycleChronicle> entry = iter.next();
+            long cycle = entry.getKey();
+            if (cycle == acquiredCycle || cycle == writeCycle || !tryClose(entry.getValue()))
+                continue;
+            iter.remove();
+        }
+    }
+
+    private boolean excerptReading(long cycle) {
+        synchronized (excerpts) {
+            for (WeakReference<AbstractExcerpt> ref : excerpts) {
+                AbstractExcerpt excerpt = ref.get();
+                if (excerpt != null && excerpt.index >= 0 && cycleOf(excerpt.index) == cycle)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the first excerpt in the oldest cycle.
+     */
+    public synchronized long firstIndex() {
+        if (cycles.isEmpty())
+            listCycles();
+        return cycles.isEmpty() ? 0 : index(cycles.first(), 0);
+    }
+
+    @Override
+    public long nextIndex(long index) {
+        if (index < 0)
+            return firstIndex();
+        long next = index + 1;
+        if (getIndexData(next + 1) != 0)
+            return next;
+        // has the writer moved on to a later cycle?
+        Long later = laterCycle(cycleOf(index));
+        // the writer could have finished this excerpt before starting the later cycle, so check again.
+        if (later == null || getIndexData(next + 1) != 0)
+            return next;
+        return index(later, 0);
+    }
+
+    private synchronized Long laterCycle(long cycle) {
+        SortedSet<Long> later = cycles.tailSet(cycle + 1);
+        if (later.isEmpty() && currentCycle() > cycle && System.currentTimeMillis() - lastListed >= LIST_INTERVAL_MS) {
+            listCycles();
+            later = cycles.tailSet(cycle + 1);
+        }
+        return later.isEmpty() ? null : later.first();
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe && byteOrder == ByteOrder.nativeOrder();
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    @Override
+    public ByteOrder byteOrder() {
+        return byteOrder;
+    }
+
+    @Override
+    public Excerpt<RollingChronicle> createExcerpt() {
+        AbstractExcerpt<RollingChronicle> excerpt = useUnsafe ? new UnsafeExcerpt<RollingChronicle>(this) : new ByteBufferExcerpt<RollingChronicle>(this);
+        synchronized (excerpts) {
+            for (Iterator<WeakReference<AbstractExcerpt>> iter = excerpts.iterator(); iter.hasNext(); )
+                if (iter.next().get() == null)
+                    iter.remove();
+            excerpts.add(new WeakReference<AbstractExcerpt>(excerpt));
+        }
+        return excerpt;
+    }
+
+    @Override
+    public long size() {
+        CycleChronicle cc;
+        do {
+            cc = writer;
+            if (cc == null) {
+                // the last cycle has been compressed.
+                long cycle = writeCycle;
+                cc = cycle < 0 ? null : acquireCycle(cycle, false);
+                if (cc == null)
+                    return 0;
+            } else if (!cc.acquire()) {
+                // the writer has moved on and the cycle was closed.
+                cc = null;
+            }
+        } while (cc == null);
+        try {
+            return index(cc.cycle, cc.chronicle.size());
+        } finally {
+            cc.release();
+        }
+    }
+
+    @Override
+    public long getIndexData(long indexId) {
+        long cycle = cycleOf(indexId);
+        CycleChronicle cc = acquireCycle(cycle, false);
+        if (cc == null)
+            return 0;
+        long indexInCycle = indexInCycle(indexId);
+        long indexData;
+        try {
+            indexData = cc.chronicle.getIndexData(indexInCycle);
+        } finally {
+            cc.release();
+        }
+        // zero means not written, except the start of the first excerpt.
+        if (indexData <= 0 && indexInCycle > 0)
+            return indexData;
+        return index(cycle, indexData);
+    }
+
+    /**
+     * The buffer can be used after the cycle is released as an Excerpt reading it stops the cycle being closed.
+     */
+    @Override
+    public ByteBuffer acquireDataBuffer(long startPosition) {
+        CycleChronicle cc = acquireCycle(cycleOf(startPosition), false);
+        try {
+            return cc.chronicle.acquireDataBuffer(startPosition & LOW_MASK);
+        } finally {
+            cc.release();
+        }
+    }
+
+    @Override
+    public int positionInBuffer(long startPosition) {
+        CycleChronicle cc = acquireCycle(cycleOf(startPosition), false);
+        try {
+            return cc.chronicle.positionInBuffer(startPosition & LOW_MASK);
+        } finally {
+            cc.release();
+        }
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        CycleChronicle cc = acquireCycle(cycleOf(indexId), true);
+        try {
+            cc.chronicle.setIndexData(indexInCycle(indexId), indexData & LOW_MASK);
+        } finally {
+            cc.release();
+        }
+    }
+
+    @Override
+    public long startExcerpt(int capacity) {
+        long cycle = currentCycle();
+        // if the clock goes backwards, keep writing to the latest cycle.
+        if (cycle > writeCycle || writer == null) {
+            boolean retain;
+            synchronized (this) {
+                // a compressed cycle is read only so write to a later one.
+                writeCycle = writer == null ? Math.max(cycle, writeCycle + 1) : cycle;
+                if (writeCycle > MAX_CYCLE)
+                    throw new IllegalStateException("Cycle " + writeCycle + " doesn't fit in " + MAX_CYCLE_BITS + " bits.");
+                CycleChronicle cc = acquireCycle(writeCycle, true);
+                // the write cycle isn't closed so it needn't be held.
+                cc.release();
+                writer = cc;
+                retain = maxRetentionAge < Long.MAX_VALUE || maxRetentionSize < Long.MAX_VALUE;
+            }
+            if (retain)
+                requestRetention();
+        }
+        return index(writeCycle, writer().startExcerpt(capacity));
+    }
+
+    private void requestRetention() {
+        synchronized (backgroundLock) {
+            if (retention == null) {
+                retention = new BackgroundRetention(this);
+                retention.start();
+            }
+            retention.request();
+        }
+    }
+
+    private IndexedChronicle writer() {
+        return (IndexedChronicle) writer.chronicle;
+    }
+
+    @Override
+    public void incrSize() {
+        writer().incrSize();
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return false;
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        backgroundCompaction(0);
+        synchronized (backgroundLock) {
+            if (retention != null) {
+                retention.close();
+                retention = null;
+            }
+        }
+        synchronized (this) {
+            lastUsed = null;
+            writer = null;
+            for (CycleChronicle cc : openCycles.values()) {
+                while (!cc.users.compareAndSet(1, 0))
+                    Thread.yield();
+                cc.chronicle.close();
+            }
+            openCycles.clear();
+        }
+    }
+
+    static class CycleChronicle {
+        final long cycle;
+        final DirectChronicle chronicle;
+        // one for openCycles plus one per call in progress, 0 once closed.
+        final AtomicInteger users = new AtomicInteger(1);
+
+        CycleChronicle(long cycle, DirectChronicle chronicle) {
+            this.cycle = cycle;
+            this.chronicle = chronicle;
+        }
+
+        boolean acquire() {
+            for (; ; ) {
+                int users = this.users.get();
+                if (users <= 0)
+                    return false;
+                if (this.users.compareAndSet(users, users + 1))
+                    return true;
+            }
+        }
+
+        void release() {
+            users.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An excerpt which can span any number of data buffers, so it is not limited to the size of a buffer and doesn't
+ * require padding at the end of each buffer.
+ * <p/>
+ * The start, position and limit are positions in the data file rather than within a buffer. Values which fit in the
+ * current buffer are accessed directly, those which straddle two buffers are copied a byte at a time.
+ *
+ * @author peter.lawrey
+ */
+public class SpanningExcerpt<C extends DirectChronicle> extends AbstractExcerpt<C> {
+    private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+    private long bufferStart = 0;
+    private long bufferEnd = 0;
+
+    protected SpanningExcerpt(C chronicle) {
+        super(chronicle);
+    }
+
+    protected void index0(long index, long startPosition, long endPosition) {
+        this.index = index;
+        this.startPosition = startPosition;
+
+        start = position = startPosition;
+        limit = endPosition;
+        buffer(startPosition);
+
+        assert limit > start && endPosition > startPosition;
+    }
+
+    private void buffer(long position) {
+        buffer = chronicle.acquireDataBuffer(position);
+        bufferStart = position - chronicle.positionInBuffer(position);
+        bufferEnd = bufferStart + buffer.capacity();
+    }
+
+    /**
+     * @return the offset in the buffer of size bytes at position, or -1 if they span two buffers.
+     */
+    private int offset(long position, int size) {
+        if (position < bufferStart || position >= bufferEnd)
+            buffer(position);
+        if (position + size > bufferEnd)
+            return -1;
+        return (int) (position - bufferStart);
+    }
+
+    private ByteBuffer readSpanning(long position, int size) {
+        for (int i = 0; i < size; i++)
+            scratch.put(i, readByte0(position + i));
+        return scratch;
+    }
+
+    private void writeSpanning(long position, int size) {
+        for (int i = 0; i < size; i++)
+            write0(position + i, scratch.get(i));
+    }
+
+    // RandomDataInput
+
+    private byte readByte0(long position) {
+        // offset() can change the buffer so it must be called first.
+        int offset = offset(position, 1);
+        return buffer.get(offset);
+    }
+
+    @Override
+    public byte readByte() {
+        return readByte0(position++);
+    }
+
+    @Override
+    public byte readByte(int offset) {
+        return readByte0(start + offset);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) {
+        while (len > 0) {
+            int offset = offset(position, 1);
+            int length = (int) Math.min(len, bufferEnd - position);
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(offset);
+            bb.get(b, off, length);
+            position += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    private short readShort0(long position) {
+        int offset = offset(position, 2);
+        return offset >= 0 ? buffer.getShort(offset) : readSpanning(position, 2).getShort(0);
+    }
+
+    @Override
+    public short readShort() {
+        short s = readShort0(position);
+        position += 2;
+        return s;
+    }
+
+    @Override
+    public short readShort(int offset) {
+        return readShort0(start + offset);
+    }
+
+    private char readChar0(long position) {
+        int offset = offset(position, 2);
+        return offset >= 0 ? buffer.getChar(offset) : readSpanning(position, 2).getChar(0);
+    }
+
+    @Override
+    public char readChar() {
+        char ch = readChar0(position);
+        position += 2;
+        return ch;
+    }
+
+    @Override
+    public char readChar(int offset) {
+        return readChar0(start + offset);
+    }
+
+    private int readInt0(long position) {
+        int offset = offset(position, 4);
+        return offset >= 0 ? buffer.getInt(offset) : readSpanning(position, 4).getInt(0);
+    }
+
+    @Override
+    public int readInt() {
+        int i = readInt0(position);
+        position += 4;
+        return i;
+    }
+
+    @Override
+    public int readInt(int offset) {
+        return readInt0(start + offset);
+    }
+
+    private long readLong0(long position) {
+        int offset = offset(position, 8);
+        return offset >= 0 ? buffer.getLong(offset) : readSpanning(position, 8).getLong(0);
+    }
+
+    @Override
+    public long readLong() {
+        long l = readLong0(position);
+        position += 8;
+        return l;
+    }
+
+    @Override
+    public long readLong(int offset) {
+        return readLong0(start + offset);
+    }
+
+    @Override
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public float readFloat(int offset) {
+        return Float.intBitsToFloat(readInt(offset));
+    }
+
+    @Override
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public double readDouble(int offset) {
+        return Double.longBitsToDouble(readLong(offset));
+    }
+
+    // RandomDataOutput
+
+    private void write0(long position, byte b) {
+        int offset = offset(position, 1);
+        buffer.put(offset, b);
+    }
+
+    @Override
+    public void write(int b) {
+        write0(position++, (byte) b);
+    }
+
+    @Override
+    public void write(int offset, int b) {
+        write0(start + offset, (byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int offset = offset(position, 1);
+            int length = (int) Math.min(len, bufferEnd - position);
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(offset);
+            bb.put(b, off, length);
+            position += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    private void writeShort0(long position, int v) {
+        int offset = offset(position, 2);
+        if (offset >= 0) {
+            buffer.putShort(offset, (short) v);
+        } else {
+            scratch.putShort(0, (short) v);
+            writeSpanning(position, 2);
+        }
+    }
+
+    @Override
+    public void writeShort(int v) {
+        writeShort0(position, v);
+        position += 2;
+    }
+
+    @Override
+    public void writeShort(int offset, int v) {
+        writeShort0(start + offset, v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        writeShort0(position, v);
+        position += 2;
+    }
+
+    @Override
+    public void writeChar(int offset, int v) {
+        writeShort0(start + offset, v);
+    }
+
+    private void writeInt0(long position, int v) {
+        int offset = offset(position, 4);
+        if (offset >= 0) {
+            buffer.putInt(offset, v);
+        } else {
+            scratch.putInt(0, v);
+            writeSpanning(position, 4);
+        }
+    }
+
+    @Override
+    public void writeInt(int v) {
+        writeInt0(position, v);
+        position += 4;
+    }
+
+    @Override
+    public void writeInt(int offset, int v) {
+        writeInt0(start + offset, v);
+    }
+
+    private void writeLong0(long position, long v) {
+        int offset = offset(position, 8);
+        if (offset >= 0) {
+            buffer.putLong(offset, v);
+        } else {
+            scratch.putLong(0, v);
+            writeSpanning(position, 8);
+        }
+    }
+
+    @Override
+    public void writeLong(long v) {
+        writeLong0(position, v);
+        position += 8;
+    }
+
+    @Override
+    public void writeLong(int offset, long v) {
+        writeLong0(start + offset, v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToRawIntBits(v));
+    }
+
+    @Override
+    public void writeFloat(int offset, float v) {
+        writeInt(offset, Float.floatToRawIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToRawLongBits(v));
+    }
+
+    @Override
+    public void writeDouble(int offset, double v) {
+        writeLong(offset, Double.doubleToRawLongBits(v));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Chronicle with an index entry every indexInterval excerpts rather than every excerpt, for many small excerpts where
+ * a full index would be a large part of the data.
+ * <p/>
+ * Each excerpt in the data file is preceded by its length + 1 as an int, so 0 means not written yet. An excerpt which
+ * doesn't fit in the rest of a data buffer is moved to the next buffer with a PADDING length where it would have gone,
+ * if there is room for one. Looking up an excerpt starts from the index entry before it and steps over the lengths of
+ * the excerpts in between, so random access reads up to indexInterval lengths. Each thread remembers the last excerpt
+ * it found so reading in order only steps over one length per excerpt.
+ * <p/>
+ * Only one thread may write.
+ *
+ * @author peter.lawrey
+ */
+public class SparseIndexedChronicle extends AbstractChronicle {
+    public static final int DEFAULT_INDEX_INTERVAL = 64;
+    static final int LENGTH_SIZE = 4;
+    static final int PADDING = -1;
+
+    private final int indexInterval;
+    private final int indexLowMask;
+    private final int dataLowMask;
+    private final MappedFile indexFile;
+    private final MappedFile dataFile;
+    // the excerpt and position this thread found last.
+    private final ThreadLocal<long[]> lastFound = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{-1, 0};
+        }
+    };
+    private boolean useUnsafe = false;
+    // only used by the writer.
+    private long writePosition = 0;
+    private long excerptPosition = 0;
+
+    public SparseIndexedChronicle(String basePath, int dataBitSizeHint) throws IOException {
+        this(basePath, dataBitSizeHint, DEFAULT_INDEX_INTERVAL);
+    }
+
+    public SparseIndexedChronicle(String basePath, int dataBitSizeHint, int indexInterval) throws IOException {
+        super(new File(basePath).getName());
+        if (indexInterval < 1)
+            throw new IllegalArgumentException("indexInterval " + indexInterval + " must be >= 1");
+        this.indexInterval = indexInterval;
+        int dataBitSize = Math.min(30, Math.max(12, dataBitSizeHint));
+        int indexBitSize = Math.min(30, Math.max(12, dataBitSizeHint - 4));
+        indexLowMask = (1 << indexBitSize) - 1;
+        dataLowMask = (1 << dataBitSize) - 1;
+
+        File parentFile = new File(basePath).getParentFile();
+        if (parentFile != null)
+            parentFile.mkdirs();
+        indexFile = new MappedFile(new RandomAccessFile(basePath + ".index", "rw").getChannel(), indexBitSize, ByteOrder.nativeOrder()) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return true;
+            }
+        };
+        dataFile = new MappedFile(new RandomAccessFile(basePath + ".data", "rw").getChannel(), dataBitSize, ByteOrder.nativeOrder()) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return true;
+            }
+        };
+
+        // find the last index entry and step over the excerpts after it.
+        long entries = indexFile.size() >>> 3;
+        while (entries > 0 && getIndexEntry(entries - 1) == 0)
+            entries--;
+        if (entries > 0) {
+            long position = getIndexEntry(entries - 1) - 1;
+            size = (entries - 1) * indexInterval;
+            int length;
+            while ((length = getLength(position)) > 0) {
+                position = skipPadding(position + LENGTH_SIZE + length - 1);
+                size++;
+            }
+            writePosition = position;
+            System.out.println(basePath + ", size=" + size);
+        } else {
+            System.out.println(basePath + " created.");
+        }
+    }
+
+    public int indexInterval() {
+        return indexInterval;
+    }
+
+    public void useUnsafe(boolean useUnsafe) {
+        this.useUnsafe = useUnsafe;
+    }
+
+    public boolean useUnsafe() {
+        return useUnsafe;
+    }
+
+    public ByteOrder byteOrder() {
+        return ByteOrder.nativeOrder();
+    }
+
+    @Override
+    public Excerpt<SparseIndexedChronicle> createExcerpt() {
+        return useUnsafe ? new UnsafeExcerpt<SparseIndexedChronicle>(this) : new ByteBufferExcerpt<SparseIndexedChronicle>(this);
+    }
+
+    @Override
+    public int excerptHeaderSize() {
+        return LENGTH_SIZE;
+    }
+
+    /**
+     * @return the position of the length before the excerpt, which is also the end of the excerpt before it, or 0 if
+     *         the excerpt before it hasn't been written.
+     */
+    @Override
+    public long getIndexData(long indexId) {
+        if (indexId <= 0)
+            return 0;
+        // start from the index entry for an excerpt before this one, as that excerpt has been written if this one has.
+        long index = (indexId - 1) / indexInterval * indexInterval;
+        long position = getIndexEntry(index / indexInterval) - 1;
+        if (position < 0)
+            return 0;
+        long[] lastFound = this.lastFound.get();
+        if (lastFound[0] >= index && lastFound[0] <= indexId) {
+            index = lastFound[0];
+            position = lastFound[1];
+        }
+        for (; index < indexId; index++) {
+            int length = getLength(position);
+            if (length <= 0)
+                return 0;
+            // only excerpts which have been written are remembered as the padding before later ones can change.
+            lastFound[0] = index;
+            lastFound[1] = position;
+            position = skipPadding(position + LENGTH_SIZE + length - 1);
+        }
+        return position;
+    }
+
+    private long skipPadding(long position) {
+        int offset = (int) (position & dataLowMask);
+        if (offset + LENGTH_SIZE > dataLowMask + 1 || getLength(position) == PADDING)
+            return (position | dataLowMask) + 1;
+        return position;
+    }
+
+    private int getLength(long position) {
+        return acquireDataBuffer(position).getInt(positionInBuffer(position));
+    }
+
+    private void setLength(long position, int length) {
+        acquireDataBuffer(position).putInt(positionInBuffer(position), length);
+    }
+
+    private long getIndexEntry(long entry) {
+        long offset = entry << 3;
+        return indexFile.acquire(offset).getLong((int) (offset & indexLowMask));
+    }
+
+    private void setIndexEntry(long entry, long position) {
+        long offset = entry << 3;
+        // stored as position + 1 so 0 means not written.
+        indexFile.acquire(offset).putLong((int) (offset & indexLowMask), position + 1);
+    }
+
+    @Override
+    public ByteBuffer acquireDataBuffer(long startPosition) {
+        return dataFile.acquire(startPosition);
+    }
+
+    @Override
+    public int positionInBuffer(long startPosition) {
+        return (int) (startPosition & dataLowMask);
+    }
+
+    @Override
+    public long startExcerpt(int capacity) {
+        if (capacity + LENGTH_SIZE > dataLowMask)
+            throw new IllegalArgumentException("Capacity " + capacity + " doesn't fit in a data buffer.");
+        long position = writePosition;
+        // does it overlap a ByteBuffer barrier.
+        if ((position & ~dataLowMask) != ((position + LENGTH_SIZE + capacity) & ~dataLowMask)) {
+            if ((position & dataLowMask) + LENGTH_SIZE <= dataLowMask + 1)
+                setLength(position, PADDING);
+            position = (position | dataLowMask) + 1;
+        }
+        if (size % indexInterval == 0)
+            setIndexEntry(size / indexInterval, position);
+        excerptPosition = position;
+        return position + LENGTH_SIZE;
+    }
+
+    @Override
+    public void setIndexData(long indexId, long indexData) {
+        // the end of the excerpt being finished, mark the next one as not written in case this is old data.
+        if ((indexData & dataLowMask) + LENGTH_SIZE <= dataLowMask + 1)
+            setLength(indexData, 0);
+        setLength(excerptPosition, (int) (indexData - excerptPosition - LENGTH_SIZE) + 1);
+        writePosition = indexData;
+    }
+
+    @Override
+    public void incrSize() {
+        size++;
+    }
+
+    @Override
+    public boolean multiWriter() {
+        return false;
+    }
+
+    @Override
+    public long reserveExcerpt(int capacity) {
+        throw new UnsupportedOperationException("multiWriter requires a full index.");
+    }
+
+    @Override
+    public void publishExcerpt(long index) {
+        throw new UnsupportedOperationException("multiWriter requires a full index.");
+    }
+
+    /**
+     * Clear any previous data in the Chronicle.
+     * <p/>
+     * Added for testing purposes.
+     */
+    public void clear() {
+        for (long entry = size / indexInterval; entry > 0; entry--)
+            indexFile.acquire(entry << 3).putLong((int) ((entry << 3) & indexLowMask), 0L);
+        size = 0;
+        writePosition = 0;
+        setLength(0, 0);
+        setIndexEntry(0, 0);
+        lastFound.remove();
+    }
+
+    public void close() {
+        try {
+            indexFile.close();
+        } finally {
+            dataFile.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The time each excerpt was started, as a long of nanoseconds since the epoch per excerpt in a .time file alongside
+ * the index. The entry for an excerpt is written before it is visible to readers, and 0 if it hasn't been written.
+ *
+ * @author peter.lawrey
+ */
+class TimeIndex implements Closeable {
+    private static final int ENTRY_BIT_SIZE = 3;
+    // System.nanoTime() as wall clock time, calibrated once so the time doesn't go backwards.
+    private static final long NANO_TIME_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    private final MappedFile timeFile;
+    private final int lowMask;
+
+    TimeIndex(String basePath, int bitSize) throws IOException {
+        timeFile = new MappedFile(new RandomAccessFile(basePath + ".time", "rw").getChannel(), bitSize, ByteOrder.nativeOrder()) {
+            @Override
+            protected boolean inUse(ByteBuffer buffer) {
+                return true;
+            }
+        };
+        lowMask = (1 << bitSize) - 1;
+    }
+
+    static long currentTimeNanos() {
+        return System.nanoTime() + NANO_TIME_OFFSET;
+    }
+
+    long timestamp(long index) {
+        long offset = index << ENTRY_BIT_SIZE;
+        return timeFile.acquire(offset).getLong((int) (offset & lowMask));
+    }
+
+    void timestamp(long index, long timeNanos) {
+        long offset = index << ENTRY_BIT_SIZE;
+        timeFile.acquire(offset).putLong((int) (offset & lowMask), timeNanos);
+    }
+
+    void force(long fromIndex, long toIndex) {
+        timeFile.force(fromIndex << ENTRY_BIT_SIZE, toIndex << ENTRY_BIT_SIZE);
+    }
+
+    @Override
+    public void close() {
+        timeFile.close();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Lets a reader sleep until an excerpt is finished by a writer in any process, without polling.
+ * <p/>
+ * Each Wakeup listens on a loopback UDP port recorded in the Chronicle's header. While it is sleeping, it marks its
+ * slot asleep and writers send it a datagram each time they finish an excerpt. When no reader is asleep, a writer only
+ * reads a counter in the header.
+ * <p/>
+ * A Wakeup is used by one thread.
+ *
+ * @author peter.lawrey
+ */
+public class Wakeup implements Closeable {
+    private final ChronicleHeader header;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer buffer = ByteBuffer.allocate(16);
+    private final int slot;
+    private long wakeups = 0;
+
+    Wakeup(ChronicleHeader header) throws IOException {
+        this.header = header;
+        channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        slot = header.addWaiter(channel.socket().getLocalPort());
+        if (slot < 0) {
+            close0();
+            throw new IOException("More than " + ChronicleHeader.MAX_WAITERS + " readers are waiting.");
+        }
+    }
+
+    /**
+     * @return a value which changes each time excerpts are finished.
+     */
+    public long sequence() {
+        return header.published();
+    }
+
+    /**
+     * Sleep until an excerpt is finished, unless sequence() has already changed.
+     *
+     * @param sequence     the value of sequence() read before the reader last checked for an excerpt.
+     * @param timeoutNanos the longest to sleep.
+     * @return true if woken, false if timed out.
+     */
+    public boolean await(long sequence, long timeoutNanos) throws IOException {
+        // wakeups sent while this wasn't asleep would end the sleep early.
+        drain();
+        long timeoutMillis = Math.max(1, Math.min(Integer.MAX_VALUE, timeoutNanos / 1000000));
+        header.sleepUntil(slot, System.currentTimeMillis() + timeoutMillis + 1);
+        // a writer increments published() before reading sleepers() so one of them sees the other.
+        header.addSleepers(1);
+        try {
+            if (sequence() != sequence)
+                return true;
+            selector.select(timeoutMillis);
+            selector.selectedKeys().clear();
+            if (drain() == 0)
+                return false;
+            wakeups++;
+            return true;
+        } finally {
+            header.addSleepers(-1);
+            header.sleepUntil(slot, 0);
+        }
+    }
+
+    /**
+     * @return the number of datagrams received.
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        while (true) {
+            buffer.clear();
+            if (channel.receive(buffer) == null)
+                return count;
+            count++;
+        }
+    }
+
+    /**
+     * @return the number of times a writer woke this reader.
+     */
+    public long wakeups() {
+        return wakeups;
+    }
+
+    @Override
+    public void close() {
+        header.removeWaiter(slot);
+        close0();
+    }
+
+    private void close0() {
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the counters of a WaitStrategy.  They are only updated by the thread waiting, so reading them from another
+ * thread gives a recent but not exact value.
+ *
+ * @author peter.lawrey
+ */
+public abstract class AbstractWaitStrategy implements WaitStrategy {
+    private long idles = 0, spins = 0, yields = 0, parks = 0;
+
+    @Override
+    public void idle(int idleCount) {
+        idles++;
+        idle0(idleCount);
+    }
+
+    protected abstract void idle0(int idleCount);
+
+    protected void spin() {
+        spins++;
+    }
+
+    protected void yieldThread() {
+        yields++;
+        Thread.yield();
+    }
+
+    protected void park(long parkNanos) {
+        parked();
+        LockSupport.parkNanos(parkNanos);
+    }
+
+    /**
+     * Count a park which didn't use LockSupport.
+     */
+    protected void parked() {
+        parks++;
+    }
+
+    @Override
+    public long idles() {
+        return idles;
+    }
+
+    @Override
+    public long spins() {
+        return spins;
+    }
+
+    @Override
+    public long yields() {
+        return yields;
+    }
+
+    @Override
+    public long parks() {
+        return parks;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{idles=" + idles + ", spins=" + spins + ", yields=" + yields + ", parks=" + parks + '}';
+    }
+}
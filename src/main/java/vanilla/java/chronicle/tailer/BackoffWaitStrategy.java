@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+/**
+ * Spin, then yield, then park for progressively longer, so a busy consumer has low latency and an idle one uses little
+ * CPU.
+ *
+ * @author peter.lawrey
+ */
+public class BackoffWaitStrategy extends AbstractWaitStrategy {
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public BackoffWaitStrategy() {
+        this(100, 100, 1000, 1000 * 1000);
+    }
+
+    public BackoffWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos)
+            throw new IllegalArgumentException("Invalid park range " + minParkNanos + " to " + maxParkNanos);
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    protected void idle0(int idleCount) {
+        if (idleCount < spinTries) {
+            spin();
+        } else if (idleCount < spinTries + yieldTries) {
+            yieldThread();
+        } else {
+            // double the park time each time up to the maximum.
+            int doublings = Math.min(62, idleCount - spinTries - yieldTries);
+            long parkNanos = minParkNanos << doublings;
+            park(parkNanos <= 0 || parkNanos > maxParkNanos || (parkNanos >> doublings) != minParkNanos ? maxParkNanos : parkNanos);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+/**
+ * Check again immediately. The lowest latency, but uses a whole CPU while waiting and should only be used with
+ * fewer busy threads than cores.
+ *
+ * @author peter.lawrey
+ */
+public class BusySpinWaitStrategy extends AbstractWaitStrategy {
+    @Override
+    protected void idle0(int idleCount) {
+        spin();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+import vanilla.java.chronicle.impl.IndexedChronicle;
+import vanilla.java.chronicle.impl.Wakeup;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Spin a number of times then sleep until a writer in any process finishes an excerpt, so an idle reader uses no CPU
+ * but wakes within microseconds.  A sleep is counted as a park.
+ * <p/>
+ * Close it when finished with, to free its slot in the Chronicle's header.
+ *
+ * @author peter.lawrey
+ */
+public class NotifyingWaitStrategy extends AbstractWaitStrategy implements Closeable {
+    private final Wakeup wakeup;
+    private final int spinTries;
+    private final long maxSleepNanos;
+    private long sequence = -1;
+
+    public NotifyingWaitStrategy(IndexedChronicle chronicle) throws IOException {
+        this(chronicle, 100, 100 * 1000 * 1000);
+    }
+
+    /**
+     * @param spinTries     the number of times to spin before sleeping.
+     * @param maxSleepNanos the longest to sleep in case a writer couldn't send a wakeup.
+     */
+    public NotifyingWaitStrategy(IndexedChronicle chronicle, int spinTries, long maxSleepNanos) throws IOException {
+        this.spinTries = spinTries;
+        this.maxSleepNanos = maxSleepNanos;
+        wakeup = chronicle.createWakeup();
+    }
+
+    @Override
+    protected void idle0(int idleCount) {
+        if (idleCount == 0)
+            sequence = -1;
+        if (idleCount < spinTries || sequence < 0) {
+            // the reader must check again after the sequence is read, before it is safe to sleep.
+            sequence = wakeup.sequence();
+            spin();
+            return;
+        }
+        parked();
+        try {
+            wakeup.await(sequence, maxSleepNanos);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        sequence = -1;
+    }
+
+    /**
+     * @return the number of times a writer woke this reader.
+     */
+    public long wakeups() {
+        return wakeup.wakeups();
+    }
+
+    @Override
+    public void close() {
+        wakeup.close();
+    }
+}
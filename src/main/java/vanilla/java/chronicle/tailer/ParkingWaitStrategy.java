@@ -0,0 +1,38 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+/**
+ * Park the thread for a fixed time each time, which uses very little CPU but adds up to parkNanos of latency, more in
+ * practice as the OS timer is coarse.
+ *
+ * @author peter.lawrey
+ */
+public class ParkingWaitStrategy extends AbstractWaitStrategy {
+    private final long parkNanos;
+
+    public ParkingWaitStrategy(long parkNanos) {
+        if (parkNanos <= 0)
+            throw new IllegalArgumentException("parkNanos " + parkNanos + " must be > 0");
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    protected void idle0(int idleCount) {
+        park(parkNanos);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+import vanilla.java.chronicle.Chronicle;
+import vanilla.java.chronicle.Excerpt;
+import vanilla.java.chronicle.impl.DirectChronicle;
+
+/**
+ * Reads each excerpt of a Chronicle in turn as it is written, waiting with a WaitStrategy when it has caught up.
+ * <p/>
+ * <pre>
+ * Tailer tailer = new Tailer(chronicle, new BackoffWaitStrategy());
+ * while (running) {
+ *     Excerpt excerpt = tailer.next();
+ *     // read the excerpt.
+ * }
+ * </pre>
+ * A Tailer is used by one thread.
+ *
+ * @author peter.lawrey
+ */
+public class Tailer {
+    private final DirectChronicle chronicle;
+    private final Excerpt excerpt;
+    private final WaitStrategy waitStrategy;
+    private final long firstIndex;
+    // the index of the last excerpt read, or -1 if none have been.
+    private long lastIndex = -1;
+    private long reads = 0;
+
+    /**
+     * Read from the first excerpt.
+     */
+    public Tailer(Chronicle chronicle, WaitStrategy waitStrategy) {
+        this(chronicle, waitStrategy, -1);
+    }
+
+    /**
+     * @param index of the first excerpt to read, or -1 for the first excerpt.
+     */
+    public Tailer(Chronicle chronicle, WaitStrategy waitStrategy, long index) {
+        this.chronicle = (DirectChronicle) chronicle;
+        this.waitStrategy = waitStrategy;
+        firstIndex = index;
+        excerpt = chronicle.createExcerpt();
+    }
+
+    /**
+     * Read the next excerpt if there is one.
+     *
+     * @return true if excerpt() is the next excerpt, or false if it hasn't been written yet.
+     */
+    public boolean nextIndex() {
+        long index = index();
+        if (!excerpt.index(index))
+            return false;
+        lastIndex = index;
+        reads++;
+        return true;
+    }
+
+    /**
+     * Wait for the next excerpt with the WaitStrategy.
+     *
+     * @return the next excerpt.
+     */
+    public Excerpt next() {
+        for (int idleCount = 0; !nextIndex(); idleCount++)
+            waitStrategy.idle(idleCount);
+        return excerpt;
+    }
+
+    /**
+     * Wait for the next excerpt with the WaitStrategy, up to a timeout.
+     *
+     * @param timeoutNanos the longest time to wait.
+     * @return true if excerpt() is the next excerpt, or false if it timed out.
+     */
+    public boolean next(long timeoutNanos) {
+        if (nextIndex())
+            return true;
+        long deadline = System.nanoTime() + timeoutNanos;
+        for (int idleCount = 0; !nextIndex(); idleCount++) {
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+            waitStrategy.idle(idleCount);
+        }
+        return true;
+    }
+
+    public Excerpt excerpt() {
+        return excerpt;
+    }
+
+    /**
+     * The next index is found each time as it changes when a RollingChronicle starts a new cycle after the last excerpt
+     * was read.
+     *
+     * @return the index of the next excerpt to read.
+     */
+    public long index() {
+        if (lastIndex >= 0)
+            return chronicle.nextIndex(lastIndex);
+        // the first index of a RollingChronicle isn't known until its first cycle has been written.
+        return firstIndex < 0 ? chronicle.nextIndex(-1) : firstIndex;
+    }
+
+    public WaitStrategy waitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return the number of excerpts read.
+     */
+    public long reads() {
+        return reads;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+/**
+ * How a Tailer waits when there is no excerpt to read yet, trading latency for CPU use.
+ * <p/>
+ * A WaitStrategy has counters so it is used by one Tailer at a time.
+ *
+ * @author peter.lawrey
+ */
+public interface WaitStrategy {
+    /**
+     * Wait a little before the Tailer checks for the next excerpt again.
+     *
+     * @param idleCount the number of times idle() has been called since an excerpt was last read, starting at 0.
+     */
+    void idle(int idleCount);
+
+    /**
+     * @return the number of times idle() has been called.
+     */
+    long idles();
+
+    /**
+     * @return the number of times idle() returned without giving up the CPU.
+     */
+    long spins();
+
+    /**
+     * @return the number of times idle() called Thread.yield().
+     */
+    long yields();
+
+    /**
+     * @return the number of times idle() parked the thread.
+     */
+    long parks();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+/**
+ * Spin a number of times then yield the CPU each time, so other threads can run but the latency stays low.
+ *
+ * @author peter.lawrey
+ */
+public class YieldingWaitStrategy extends AbstractWaitStrategy {
+    private final int spinTries;
+
+    public YieldingWaitStrategy() {
+        this(100);
+    }
+
+    public YieldingWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    protected void idle0(int idleCount) {
+        if (idleCount < spinTries)
+            spin();
+        else
+            yieldThread();
+    }
+}
@@ -19,6 +19,9 @@ package vanilla.java.chronicle.tcp;
 import vanilla.java.chronicle.Chronicle;
 import vanilla.java.chronicle.Excerpt;
 import vanilla.java.chronicle.impl.IndexedChronicle;
+import vanilla.java.chronicle.tailer.AbstractWaitStrategy;
+import vanilla.java.chronicle.tailer.Tailer;
+import vanilla.java.chronicle.tailer.WaitStrategy;
 
 import java.io.Closeable;
 import java.io.EOFException;
@@ -109,11 +112,11 @@ public class ChronicleSource<C extends Chronicle> implements Closeable {
         public void run() {
             try {
                 long index = readIndex(socket);
-                Excerpt excerpt = chronicle.createExcerpt();
+                Tailer tailer = new Tailer(chronicle, createWaitStrategy(), index);
                 ByteBuffer bb = TcpUtil.createBuffer(1, chronicle);
                 while (!closed) {
-                    while (!excerpt.index(index))
-                        pause(delayNS);
+                    Excerpt excerpt = tailer.next();
+                    index = excerpt.index();
                     int size = excerpt.capacity();
                     int capacity = size + TcpUtil.HEADER_SIZE;
                     if (capacity > bb.capacity())
@@ -141,6 +144,23 @@ public class ChronicleSource<C extends Chronicle> implements Closeable {
         }
     }
 
+    /**
+     * @return how each client's handler waits for the next excerpt.  By default this calls pause() so subclasses which
+     *         override it still work.
+     */
+    protected WaitStrategy createWaitStrategy() {
+        return new AbstractWaitStrategy() {
+            @Override
+            protected void idle0(int idleCount) {
+                pause(delayNS);
+            }
+        };
+    }
+
+    /**
+     * @deprecated override createWaitStrategy() instead.
+     */
+    @Deprecated
     protected void pause(int delayNS) {
         if (delayNS < 1) return;
         if (delayNS < 20000)
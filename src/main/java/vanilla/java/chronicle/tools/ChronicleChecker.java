@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tools;
+
+import vanilla.java.chronicle.impl.AbstractExcerpt;
+import vanilla.java.chronicle.impl.IndexedChronicle;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Check the checksum of every excerpt in a Chronicle and print the index of any which don't match.
+ *
+ * @author peter.lawrey
+ */
+public enum ChronicleChecker {
+    ;
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + ChronicleChecker.class.getName() + " {chronicle-base-path} [from-index]");
+            System.exit(-1);
+        }
+        int dataBitsHintSize = Integer.getInteger("dataBitsHintSize", 24);
+        String def = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? "Big" : "Little";
+        ByteOrder byteOrder = System.getProperty("byteOrder", def).equalsIgnoreCase("Big") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        String basePath = args[0];
+        long index = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+        IndexedChronicle ic = new IndexedChronicle(basePath, dataBitsHintSize, byteOrder);
+        if (!ic.checksums()) {
+            System.err.println(basePath + " doesn't have checksums.");
+            ic.close();
+            System.exit(-1);
+        }
+        long start = System.nanoTime();
+        long count = 0, failed = 0, size = ic.size();
+        AbstractExcerpt excerpt = (AbstractExcerpt) ic.createExcerpt();
+        for (; index < size; index++) {
+            excerpt.index(index);
+            if (!excerpt.checksumValid()) {
+                System.out.println(index + ": checksum failed");
+                failed++;
+            }
+            count++;
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("Checked %,d excerpts in %.3f seconds, %,d failed.%n", count, time / 1e9, failed);
+        ic.close();
+        if (failed > 0)
+            System.exit(1);
+    }
+}
@@ -2,6 +2,8 @@ package vanilla.java.chronicle.tools;
 
 import vanilla.java.chronicle.Excerpt;
 import vanilla.java.chronicle.impl.IndexedChronicle;
+import vanilla.java.chronicle.tailer.ParkingWaitStrategy;
+import vanilla.java.chronicle.tailer.Tailer;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
@@ -14,7 +16,7 @@ import java.nio.ByteOrder;
 public enum ChronicleReader {
     ;
 
-    public static void main(String... args) throws IOException, InterruptedException {
+    public static void main(String... args) throws IOException {
         if (args.length < 1) {
             System.err.println("Usage: java " + ChronicleReader.class.getName() + " {chronicle-base-path} [from-index]");
             System.exit(-1);
@@ -25,11 +27,10 @@ public enum ChronicleReader {
         String basePath = args[0];
         long index = args.length > 1 ? Long.parseLong(args[1]) : 0L;
         IndexedChronicle ic = new IndexedChronicle(basePath, dataBitsHintSize, byteOrder);
-        Excerpt excerpt = ic.createExcerpt();
+        Tailer tailer = new Tailer(ic, new ParkingWaitStrategy(50 * 1000 * 1000), index);
         while (true) {
-            while (!excerpt.index(index))
-                Thread.sleep(50);
-            System.out.print(index + ": ");
+            Excerpt excerpt = tailer.next();
+            System.out.print(excerpt.index() + ": ");
             int nullCount = 0;
             while (excerpt.remaining() > 0) {
                 char ch = (char) excerpt.readUnsignedByte();
@@ -50,7 +51,6 @@ public enum ChronicleReader {
             if (nullCount > 0)
                 System.out.print(" " + nullCount + "*\\0");
             System.out.println();
-            index++;
         }
     }
 }
@@ -38,6 +38,9 @@ public class ByteBufferExcerptTest {
         expect(dc.acquireDataBuffer(0)).andReturn(ByteBuffer.wrap(new byte[]{-128, 0, 0, 0, 0, 0, 0, 0}));
         expect(dc.positionInBuffer(0)).andReturn(0);
         expect(dc.positionInBuffer(0)).andReturn(0);
+        expect(dc.checksums()).andReturn(false).anyTimes();
+        expect(dc.excerptHeaderSize()).andReturn(0).anyTimes();
+        expect(dc.unpublished(0)).andReturn(false).anyTimes();
         replay(dc);
         ByteBufferExcerpt<DirectChronicle> aei = new ByteBufferExcerpt<DirectChronicle>(dc);
         aei.index(0);
@@ -56,6 +59,9 @@ public class ByteBufferExcerptTest {
         expect(dc.acquireDataBuffer(0)).andReturn(bb);
         expect(dc.positionInBuffer(0)).andReturn(0);
         expect(dc.positionInBuffer(0)).andReturn(0);
+        expect(dc.checksums()).andReturn(false).anyTimes();
+        expect(dc.excerptHeaderSize()).andReturn(0).anyTimes();
+        expect(dc.unpublished(0)).andReturn(false).anyTimes();
         replay(dc);
         ByteBufferExcerpt<DirectChronicle> aei = new ByteBufferExcerpt<DirectChronicle>(dc);
         aei.index(0);
@@ -80,6 +86,9 @@ public class ByteBufferExcerptTest {
         expect(dc.acquireDataBuffer(0)).andReturn(bb);
         expect(dc.positionInBuffer(0)).andReturn(0);
         expect(dc.positionInBuffer(0)).andReturn(0);
+        expect(dc.checksums()).andReturn(false).anyTimes();
+        expect(dc.excerptHeaderSize()).andReturn(0).anyTimes();
+        expect(dc.unpublished(0)).andReturn(false).anyTimes();
         replay(dc);
         ByteBufferExcerpt<DirectChronicle> aei = new ByteBufferExcerpt<DirectChronicle>(dc);
         aei.index(0);
@@ -107,6 +116,9 @@ public class ByteBufferExcerptTest {
         expect(dc.acquireDataBuffer(0)).andReturn(bb);
         expect(dc.positionInBuffer(0)).andReturn(0);
         expect(dc.positionInBuffer(0)).andReturn(0);
+        expect(dc.checksums()).andReturn(false).anyTimes();
+        expect(dc.excerptHeaderSize()).andReturn(0).anyTimes();
+        expect(dc.unpublished(0)).andReturn(false).anyTimes();
         replay(dc);
         ByteBufferExcerpt<DirectChronicle> aei = new ByteBufferExcerpt<DirectChronicle>(dc);
         aei.index(0);
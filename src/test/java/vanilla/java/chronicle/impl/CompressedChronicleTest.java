@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class CompressedChronicleTest {
+    @Test
+    public void lz() {
+        Random random = new Random(1);
+        for (int length : new int[]{0, 1, 5, 15, 16, 300, 65536}) {
+            byte[][] inputs = new byte[3][length];
+            random.nextBytes(inputs[0]);
+            // runs of one byte overlap the bytes they copy.
+            Arrays.fill(inputs[1], (byte) 7);
+            for (int i = 0; i < length; i++)
+                inputs[2][i] = (byte) ("Hello World " + i / 10).charAt(i % 12);
+            for (byte[] input : inputs) {
+                byte[] compressed = new byte[Lz.maxCompressedLength(length)];
+                int compressedLength = Lz.compress(input, 0, length, compressed, 0);
+                byte[] output = new byte[length];
+                assertEquals(length, Lz.decompress(compressed, 0, compressedLength, output, 0, length));
+                assertTrue(Arrays.equals(input, output));
+            }
+        }
+        byte[] compressed = new byte[Lz.maxCompressedLength(1000)];
+        int compressedLength = Lz.compress(new byte[1000], 0, 1000, compressed, 0);
+        assertTrue(compressedLength < 20);
+        try {
+            Lz.decompress(compressed, 0, compressedLength, new byte[999], 0, 999);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void compressAndRead() throws IOException {
+        String basePath = "/tmp/deleteme.compressed";
+        deleteNow(basePath);
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 16);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 50000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(40);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.writeUTF("price=" + (100 + i % 7));
+            excerpt.finish();
+        }
+        chronicle.close();
+        long dataLength = new File(basePath + ".data").length();
+
+        long compressedLength = ChronicleCompressor.compress(basePath, 16, ByteOrder.nativeOrder());
+        assertFalse(new File(basePath + ".data").exists());
+        assertTrue(compressedLength + " of " + dataLength, compressedLength * 2 < dataLength);
+
+        CompressedChronicle compressed = new CompressedChronicle(basePath);
+        compressed.maxCachedBlocks(2);
+        assertEquals(runs, compressed.size());
+        Excerpt reader = compressed.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+            assertEquals("price=" + (100 + i % 7), reader.readUTF());
+        }
+        assertFalse(reader.nextIndex());
+        // reading in order decompresses each block once.
+        assertEquals(compressed.blocks(), compressed.blocksDecompressed());
+
+        Random random = new Random(1);
+        for (int n = 0; n < 1000; n++) {
+            int i = random.nextInt(runs);
+            assertTrue(reader.index(i));
+            assertEquals(i + 1, reader.readLong());
+        }
+        try {
+            compressed.createExcerpt().startExcerpt(8);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        compressed.close();
+    }
+
+    @Test
+    public void largeIndexBuffers() throws IOException {
+        String basePath = "/tmp/deleteme.compressed2";
+        deleteNow(basePath);
+        // 64 KB index buffers.
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 20);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 20000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        chronicle.close();
+        assertTrue(ChronicleCompressor.compressIfPossible(basePath, 20, ByteOrder.nativeOrder()) > 0);
+
+        CompressedChronicle compressed = new CompressedChronicle(basePath);
+        Excerpt reader = compressed.createExcerpt();
+        for (int i = runs - 1; i >= 0; i -= 7) {
+            assertTrue(reader.index(i));
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+        }
+        assertFalse(reader.index(runs));
+        compressed.close();
+    }
+
+    @Test
+    public void smallExcerpts() throws IOException {
+        String basePath = "/tmp/deleteme.compressedsmall";
+        deleteNow(basePath);
+        IndexedChronicle chronicle = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 100;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(4);
+            excerpt.writeInt(i + 1);
+            excerpt.finish();
+        }
+        chronicle.close();
+        ChronicleCompressor.compress(basePath, 12, ByteOrder.nativeOrder());
+
+        CompressedChronicle compressed = new CompressedChronicle(basePath);
+        for (boolean useUnsafe : new boolean[]{false, true}) {
+            compressed.useUnsafe(useUnsafe);
+            Excerpt reader = compressed.createExcerpt();
+            // the last excerpt of the last block is shorter than a long.
+            for (int i = runs - 1; i >= 0; i--) {
+                assertTrue(reader.index(i));
+                assertEquals(4, reader.capacity());
+                assertEquals(i + 1, reader.readInt());
+            }
+        }
+        compressed.close();
+    }
+
+    @Test
+    public void rejectIntIndex() throws IOException {
+        String basePath = "/tmp/deleteme.compressedint";
+        deleteNow(basePath);
+        IndexedChronicle chronicle = new IntIndexedChronicle(basePath, 16);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1);
+        excerpt.finish();
+        chronicle.close();
+        try {
+            ChronicleCompressor.compress(basePath, 16, ByteOrder.nativeOrder());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        // left as it was.
+        assertTrue(new File(basePath + ".data").exists());
+        assertFalse(new File(basePath + ".cdata").exists());
+        chronicle = new IntIndexedChronicle(basePath, 16);
+        assertEquals(1, chronicle.size());
+        chronicle.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        for (String suffix : new String[]{".data", ".index", ".header", ".cdata"})
+            new File(basePath + suffix).delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        for (String suffix : new String[]{".data", ".index", ".header", ".cdata"})
+            new File(basePath + suffix).deleteOnExit();
+    }
+}
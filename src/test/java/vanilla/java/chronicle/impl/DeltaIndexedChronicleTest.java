@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class DeltaIndexedChronicleTest {
+    @Test
+    public void writeAndRead() throws IOException {
+        String basePath = "/tmp/deleteme.delta";
+        deleteNow(basePath);
+        DeltaIndexedChronicle chronicle = new DeltaIndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        assertFalse(excerpt.index(0));
+        int runs = 50000;
+        for (int i = 0; i < runs; i++) {
+            // vary the size so excerpts are padded to the end of buffers.
+            excerpt.startExcerpt(16 + (i % 51));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        assertEquals(runs, chronicle.size());
+        assertFalse(excerpt.index(runs));
+
+        Excerpt reader = chronicle.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+        }
+        assertFalse(reader.nextIndex());
+        Random random = new Random(1);
+        for (int n = 0; n < 10000; n++) {
+            int i = random.nextInt(runs);
+            assertTrue(reader.index(i));
+            assertEquals(i + 1, reader.readLong());
+        }
+        chronicle.close();
+
+        // 64 bytes per 26 excerpts, rounded up to a whole index buffer.
+        long blocks = (runs + DeltaIndexedChronicle.ENTRIES_PER_BLOCK) / DeltaIndexedChronicle.ENTRIES_PER_BLOCK;
+        long indexSize = new File(basePath + ".index").length();
+        assertTrue(indexSize <= blocks * 64 + 4096);
+        // at least 3x smaller than a long per excerpt, and nothing overflowed.
+        assertTrue("indexSize " + indexSize, indexSize * 3 < runs * 8L);
+        assertFalse(new File(basePath + ".overflow").exists());
+
+        DeltaIndexedChronicle chronicle2 = new DeltaIndexedChronicle(basePath, 12);
+        assertEquals(runs, chronicle2.size());
+        Excerpt excerpt2 = chronicle2.createExcerpt();
+        excerpt2.startExcerpt(8);
+        excerpt2.writeLong(runs + 1);
+        excerpt2.finish();
+        assertTrue(excerpt2.index(runs));
+        assertEquals(runs + 1, excerpt2.readLong());
+        assertTrue(excerpt2.index(runs - 1));
+        assertEquals(runs, excerpt2.readLong());
+        try {
+            chronicle2.multiWriter(true);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        chronicle2.close();
+    }
+
+    @Test
+    public void largeExcerptsOverflow() throws IOException {
+        String basePath = "/tmp/deleteme.deltaoverflow";
+        deleteNow(basePath);
+        DeltaIndexedChronicle chronicle = new DeltaIndexedChronicle(basePath, 20);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        int runs = 2000;
+        for (int i = 0; i < runs; i++) {
+            // mix small excerpts and ones large enough for a block to overflow.
+            excerpt.startExcerpt(i % 3 == 0 ? 8000 : 16);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.position(i % 3 == 0 ? 8000 : 16);
+            excerpt.finish();
+        }
+        chronicle.sync();
+        assertTrue(new File(basePath + ".overflow").exists());
+        Random random = new Random(2);
+        for (int n = 0; n < 10000; n++) {
+            int i = random.nextInt(runs);
+            assertTrue(excerpt.index(i));
+            // excerpts before the end of a data buffer are padded to it.
+            assertTrue(excerpt.capacity() >= (i % 3 == 0 ? 8000 : 16));
+            assertEquals(i + 1, excerpt.readLong());
+            assertEquals(i, excerpt.readLong());
+        }
+        chronicle.close();
+
+        chronicle = new DeltaIndexedChronicle(basePath, 20);
+        assertEquals(runs, chronicle.size());
+        assertEquals(0, chronicle.recoveredExcerpts());
+        excerpt = chronicle.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(excerpt.nextIndex());
+            assertEquals(i + 1, excerpt.readLong());
+        }
+        assertFalse(excerpt.nextIndex());
+        chronicle.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+        new File(basePath + ".header").delete();
+        new File(basePath + ".overflow").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+        new File(basePath + ".overflow").deleteOnExit();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class FixedRecordChronicleTest {
+    @Test
+    public void writeAndRead() throws IOException {
+        String basePath = "/tmp/deleteme.fixed";
+        deleteNow(basePath);
+        // 24 bytes doesn't divide the buffer size so there is space left at the end of each buffer.
+        FixedRecordChronicle chronicle = new FixedRecordChronicle(basePath, 12, 24);
+        deleteOnExit(basePath);
+        FixedRecordChronicle reader = new FixedRecordChronicle(basePath, 12, 24);
+        Excerpt excerpt = chronicle.createExcerpt();
+        Excerpt excerpt2 = reader.createExcerpt();
+        assertFalse(excerpt2.index(0));
+
+        int runs = 10000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        assertEquals(runs, chronicle.size());
+        // the other Chronicle sees what was written.
+        assertEquals(runs, reader.size());
+        assertFalse(excerpt2.index(runs));
+
+        for (int i = 0; i < runs; i++) {
+            assertTrue(excerpt2.nextIndex());
+            assertEquals(i, excerpt2.index());
+            assertEquals(24, excerpt2.capacity());
+            assertEquals(i + 1, excerpt2.readLong());
+            assertEquals(i, excerpt2.readLong());
+            assertEquals(-i, excerpt2.readLong());
+        }
+        assertFalse(excerpt2.nextIndex());
+
+        Random random = new Random(1);
+        for (int n = 0; n < 10000; n++) {
+            int i = random.nextInt(runs);
+            assertTrue(excerpt2.index(i));
+            assertEquals(i + 1, excerpt2.readLong());
+            assertEquals(-i, excerpt2.readLong(16));
+        }
+        reader.close();
+        chronicle.close();
+
+        FixedRecordChronicle chronicle2 = new FixedRecordChronicle(basePath, 12, 24);
+        assertEquals(runs, chronicle2.size());
+        chronicle2.close();
+        try {
+            new FixedRecordChronicle(basePath, 12, 32);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void smallRecords() throws IOException {
+        String basePath = "/tmp/deleteme.fixedsmall";
+        deleteNow(basePath);
+        // 4 bytes divides the buffer size, but the last record in a buffer can't be flush against its end.
+        FixedRecordChronicle chronicle = new FixedRecordChronicle(basePath, 12, 4);
+        deleteOnExit(basePath);
+        for (boolean useUnsafe : new boolean[]{false, true}) {
+            chronicle.clear();
+            chronicle.useUnsafe(useUnsafe);
+            Excerpt excerpt = chronicle.createExcerpt();
+            int runs = 2048;
+            for (int i = 0; i < runs; i++) {
+                excerpt.startExcerpt(4);
+                excerpt.writeInt(i + 1);
+                excerpt.finish();
+            }
+            Excerpt reader = chronicle.createExcerpt();
+            for (int i = 0; i < runs; i++) {
+                assertTrue(reader.index(i));
+                assertEquals(4, reader.capacity());
+                assertEquals(i + 1, reader.readInt());
+            }
+            assertFalse(reader.index(runs));
+        }
+        chronicle.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".header").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+    }
+}
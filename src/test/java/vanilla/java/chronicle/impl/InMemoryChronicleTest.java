@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class InMemoryChronicleTest {
+    @Test
+    public void writeAndRead() {
+        doWriteAndRead(false);
+        doWriteAndRead(true);
+    }
+
+    private static void doWriteAndRead(boolean useUnsafe) {
+        InMemoryChronicle chronicle = new InMemoryChronicle("test", 12);
+        chronicle.useUnsafe(useUnsafe);
+        Excerpt excerpt = chronicle.createExcerpt();
+        assertFalse(excerpt.index(0));
+        int runs = 50000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(16 + (i & 63));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        assertEquals(runs, chronicle.size());
+        // grown by a segment at a time.
+        assertTrue(chronicle.segments() > 100);
+
+        Excerpt reader = chronicle.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+        }
+        assertFalse(reader.nextIndex());
+
+        chronicle.clear();
+        assertFalse(reader.index(0));
+        chronicle.close();
+        assertEquals(0, chronicle.segments());
+    }
+
+    @Test
+    public void shared() throws IOException {
+        String name = "deleteme.shared." + System.nanoTime();
+        IndexedChronicle writer = InMemoryChronicle.createShared(name, 12);
+        String basePath = new File(new File(InMemoryChronicle.SHARED_MEMORY_DIR).isDirectory()
+                ? InMemoryChronicle.SHARED_MEMORY_DIR : System.getProperty("java.io.tmpdir"), name).getPath();
+        for (String suffix : new String[]{".data", ".index", ".header"})
+            new File(basePath + suffix).deleteOnExit();
+        IndexedChronicle reader = InMemoryChronicle.createShared(name, 12);
+
+        Excerpt excerpt = writer.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(123);
+        excerpt.finish();
+
+        Excerpt excerpt2 = reader.createExcerpt();
+        assertTrue(excerpt2.index(0));
+        assertEquals(123, excerpt2.readLong());
+        reader.close();
+        writer.close();
+    }
+}
@@ -22,6 +22,10 @@ import vanilla.java.chronicle.Excerpt;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.*;
 
@@ -124,8 +128,733 @@ public class IndexedChronicleTest {
         Assert.assertEquals(true, onetwo);
     }
 
+    @Test
+    public void multiWriterEntries() throws Exception {
+        doMultiWriterEntries(false);
+        doMultiWriterEntries(true);
+    }
+
+    private void doMultiWriterEntries(boolean useUnsafe) throws Exception {
+        String basePath = "/tmp/deleteme.mwict";
+        deleteNow(basePath);
+        final IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(useUnsafe);
+        tsc.multiWriter(true);
+        deleteOnExit(basePath);
+
+        final int threads = 4, runs = 20000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = tsc.createExcerpt();
+                    for (int i = 1; i <= runs; i++) {
+                        // vary the size so some excerpts hit the end of a buffer.
+                        excerpt.startExcerpt(16 + (i & 31));
+                        excerpt.writeLong(id + 1);
+                        excerpt.writeLong(i);
+                        excerpt.finish();
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        assertEquals(threads * runs, tsc.size());
+
+        long[] last = new long[threads];
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < threads * runs; i++) {
+            assertTrue(excerpt.index(i));
+            int id = (int) excerpt.readLong() - 1;
+            long seq = excerpt.readLong();
+            assertEquals(last[id] + 1, seq);
+            last[id] = seq;
+        }
+        assertFalse(excerpt.index(threads * runs));
+        tsc.close();
+    }
+
+    @Test
+    public void backgroundMapping() throws IOException {
+        String basePath = "/tmp/deleteme.bmict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(true);
+        tsc.backgroundMapping(true);
+        deleteOnExit(basePath);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 100000; i++) {
+            excerpt.startExcerpt(100);
+            excerpt.writeLong(i + 1);
+            excerpt.position(92);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(excerpt.index(i));
+            assertEquals(i + 1, excerpt.readLong());
+            assertEquals(-i, excerpt.readLong(92));
+        }
+        assertTrue(tsc.backgroundMapping());
+        tsc.close();
+        assertFalse(tsc.backgroundMapping());
+    }
+
+    @Test
+    public void preTouch() throws Exception {
+        String basePath = "/tmp/deleteme.ptict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 16);
+        tsc.useUnsafe(true);
+        tsc.preTouch(64 * 1024);
+        deleteOnExit(basePath);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 50000; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i + 2);
+            excerpt.writeLong(i + 3);
+            excerpt.finish();
+        }
+        for (int i = 0; i < 100 && tsc.preTouchedAhead() < 60 * 1024; i++)
+            Thread.sleep(10);
+        assertTrue("ahead " + tsc.preTouchedAhead(), tsc.preTouchedAhead() >= 60 * 1024);
+        assertTrue(tsc.prePagesTouched() > 0);
+
+        for (int i = 0; i < 50000; i++) {
+            assertTrue(excerpt.index(i));
+            assertEquals(i + 1, excerpt.readLong());
+            assertEquals(i + 2, excerpt.readLong());
+            assertEquals(i + 3, excerpt.readLong());
+        }
+        assertFalse(excerpt.index(50000));
+        tsc.close();
+        assertEquals(0, tsc.preTouchDistance());
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        String basePath = "/tmp/deleteme.gcict";
+        deleteNow(basePath);
+        final IndexedChronicle tsc = new IndexedChronicle(basePath, 16);
+        tsc.multiWriter(true);
+        // a long window so the writers are only released by a full batch.
+        tsc.durability(Durability.GROUP_COMMIT, 10 * 1000 * 1000 * 1000L, 4);
+        deleteOnExit(basePath);
+        assertEquals(Durability.GROUP_COMMIT, tsc.durability());
+
+        final int threads = 4, runs = 100;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = tsc.createExcerpt();
+                    for (int i = 1; i <= runs; i++) {
+                        excerpt.startExcerpt(8);
+                        excerpt.writeLong(i);
+                        excerpt.finish();
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join(10 * 1000);
+        assertEquals(threads * runs, tsc.size());
+        // every sync covers a batch of writers.
+        assertTrue("syncs " + tsc.syncs(), tsc.syncs() <= runs);
+
+        tsc.durability(Durability.ASYNC, 1000 * 1000, 1);
+        long syncs = tsc.syncs();
+        for (int i = 0; i < 100 && tsc.syncs() == syncs; i++)
+            Thread.sleep(10);
+        assertTrue(tsc.syncs() > syncs);
+        tsc.close();
+        assertEquals(Durability.NONE, tsc.durability());
+    }
+
+    @Test
+    public void groupCommitFailure() throws IOException {
+        String basePath = "/tmp/deleteme.gcfailict";
+        deleteNow(basePath);
+        final boolean[] fail = {false};
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 16) {
+            @Override
+            public void sync() {
+                if (fail[0])
+                    throw new IllegalStateException("Disk failed");
+                super.sync();
+            }
+        };
+        deleteOnExit(basePath);
+        tsc.durability(Durability.GROUP_COMMIT, 1000 * 1000, 1);
+        Excerpt excerpt = tsc.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1);
+        excerpt.finish();
+
+        fail[0] = true;
+        // the writer waiting when the flusher fails, and every writer after it, is told.
+        for (int i = 0; i < 2; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i + 2);
+            try {
+                excerpt.finish();
+                fail();
+            } catch (IllegalStateException expected) {
+                assertEquals("Disk failed", expected.getCause().getMessage());
+            }
+        }
+        fail[0] = false;
+        tsc.close();
+    }
+
+    @Test
+    public void checksums() throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap("123456789".getBytes());
+        assertEquals(0xE3069283, Crc32c.checksum(bb, 0, bb.capacity()));
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0xE3069283, Crc32c.checksum(bb, 0, bb.capacity()));
+
+        doChecksums(false, false);
+        doChecksums(true, false);
+        doChecksums(false, true);
+    }
+
+    private void doChecksums(boolean useUnsafe, boolean spanBuffers) throws IOException {
+        String basePath = "/tmp/deleteme.crcict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(useUnsafe);
+        tsc.spanBuffers(spanBuffers);
+        tsc.checksums(true);
+        deleteOnExit(basePath);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 1000; i++) {
+            excerpt.startExcerpt(40);
+            excerpt.writeLong(i + 1);
+            excerpt.writeDouble(i);
+            excerpt.writeInt(i);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertTrue(tsc.checksums());
+        tsc.verifyChecksums(true);
+        AbstractExcerpt excerpt2 = (AbstractExcerpt) tsc.createExcerpt();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(excerpt2.index(i));
+            // the last excerpt in a buffer is padded to the end of it, unless excerpts span buffers.
+            assertTrue(spanBuffers ? excerpt2.capacity() == 20 : excerpt2.capacity() >= 20);
+            assertEquals(i + 1, excerpt2.readLong());
+            assertEquals((double) i, excerpt2.readDouble());
+            assertEquals(i, excerpt2.readInt());
+        }
+        // flip a bit.
+        long position = tsc.getIndexData(500) + 9;
+        ByteBuffer buffer = tsc.acquireDataBuffer(position);
+        int offset = tsc.positionInBuffer(position);
+        buffer.put(offset, (byte) (buffer.get(offset) ^ 4));
+        try {
+            excerpt2.index(500);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        tsc.verifyChecksums(false);
+        assertTrue(excerpt2.index(500));
+        assertFalse(excerpt2.checksumValid());
+        assertTrue(excerpt2.index(501));
+        assertTrue(excerpt2.checksumValid());
+        try {
+            tsc.checksums(false);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        tsc.close();
+    }
+
+    @Test
+    public void recoverTail() throws IOException {
+        String basePath = "/tmp/deleteme.recict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.checksums(true);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 100; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        // some of the data of the last excerpt was lost.
+        long position = tsc.getIndexData(99) + 8;
+        tsc.acquireDataBuffer(position).putLong(tsc.positionInBuffer(position), 0L);
+        // an excerpt was started but its end is still PENDING.
+        excerpt.startExcerpt(16);
+        excerpt.writeLong(101);
+        tsc.setIndexData(101, (tsc.getIndexData(100) + 20) | DirectChronicle.PENDING);
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(100, tsc.size());
+        // the excerpt which failed its checksum is reported but kept.
+        assertEquals(1, tsc.checksumFailures());
+        assertEquals(1, tsc.recoveredExcerpts());
+        assertEquals(0, tsc.getIndexData(101));
+        excerpt = tsc.createExcerpt();
+        assertTrue(excerpt.index(99));
+        assertEquals(100, excerpt.readLong());
+        assertFalse(((AbstractExcerpt) excerpt).checksumValid());
+        excerpt.startExcerpt(16);
+        excerpt.writeLong(101);
+        excerpt.writeLong(100);
+        excerpt.finish();
+        assertEquals(101, tsc.size());
+        tsc.close();
+
+        // a writer died with an excerpt reserved.
+        tsc = new IndexedChronicle(basePath, 12);
+        tsc.multiWriter(true);
+        excerpt = tsc.createExcerpt();
+        excerpt.startExcerpt(16);
+        excerpt.writeLong(102);
+        Excerpt excerpt2 = tsc.createExcerpt();
+        excerpt2.startExcerpt(16);
+        excerpt2.writeLong(103);
+        excerpt2.writeLong(102);
+        excerpt2.finish();
+        assertEquals(103, tsc.size());
+        // a second Chronicle in this process doesn't recover as the first could be writing.
+        IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12);
+        assertEquals(0, tsc2.recoveredExcerpts());
+        tsc2.close();
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(101, tsc.size());
+        assertEquals(2, tsc.recoveredExcerpts());
+        assertEquals(0, tsc.getIndexData(102));
+        assertEquals(0, tsc.getIndexData(103));
+        tsc.close();
+    }
+
+    @Test
+    public void batchAppend() throws IOException {
+        String basePath = "/tmp/deleteme.batchict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1);
+        excerpt.finish();
+
+        Excerpt reader = tsc.createExcerpt();
+        // another Chronicle only sees the header and the index.
+        IndexedChronicle other = new IndexedChronicle(basePath, 12);
+        Excerpt otherReader = other.createExcerpt();
+        // batches cross the end of buffers as well.
+        for (int b = 0; b < 10; b++) {
+            long first = tsc.size();
+            tsc.startBatch();
+            for (int i = 0; i < 100; i++) {
+                excerpt.startExcerpt(24);
+                excerpt.writeLong(first + i + 1);
+                excerpt.writeLong(b);
+                excerpt.finish();
+            }
+            // nothing in the batch is visible, in order or by index.
+            assertEquals(first, tsc.size());
+            assertFalse(reader.index(first));
+            assertFalse(reader.index(first + 50));
+            assertFalse(reader.index(first + 99));
+            RangeCursor reverse = tsc.createReverseRange(0, Long.MAX_VALUE);
+            assertTrue(reverse.next());
+            assertEquals(first - 1, reverse.excerpt().index());
+            assertFalse(otherReader.index(first));
+            assertFalse(otherReader.index(first + 99));
+            assertTrue(otherReader.index(first - 1));
+            assertEquals(100, tsc.publishBatch());
+            assertFalse(tsc.batching());
+            for (long i = first; i < first + 100; i++) {
+                assertTrue(reader.index(i));
+                assertEquals(i + 1, reader.readLong());
+                assertEquals(b, reader.readLong());
+                assertTrue(otherReader.index(i));
+            }
+        }
+        tsc.startBatch();
+        assertEquals(0, tsc.publishBatch());
+        other.close();
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1001, tsc.size());
+        assertEquals(0, tsc.recoveredExcerpts());
+
+        // a batch longer than the recovery window which is never published.
+        excerpt = tsc.createExcerpt();
+        tsc.startBatch();
+        int unpublished = (int) (IndexedChronicle.RECOVER_BYTES / 24 + 1000);
+        for (int i = 0; i < unpublished; i++) {
+            excerpt.startExcerpt(24);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1001, tsc.size());
+        assertEquals(unpublished, tsc.recoveredExcerpts());
+        assertEquals(0, tsc.getIndexData(1002));
+        reader = tsc.createExcerpt();
+        assertFalse(reader.index(1001));
+        assertTrue(reader.index(1000));
+        tsc.close();
+    }
+
+    @Test
+    public void rangeCursor() throws IOException {
+        String basePath = "/tmp/deleteme.rangeict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        RangeCursor tail = tsc.createRange(0, Long.MAX_VALUE);
+        assertFalse(tail.next());
+        for (int i = 0; i < 10000; i++) {
+            // vary the size so excerpts are padded to the end of buffers.
+            excerpt.startExcerpt(16 + (i & 63));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+
+        RangeCursor all = tsc.createRange(0, tsc.size());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(all.next());
+            Excerpt e = all.excerpt();
+            assertEquals(i, e.index());
+            assertEquals(i + 1, e.readLong());
+            assertEquals(i, e.readLong());
+        }
+        assertFalse(all.next());
+        assertEquals(0, all.remaining());
+
+        RangeCursor some = tsc.createRange(100, 200);
+        some.prefetchDistance(0);
+        int count = 0;
+        while (some.next()) {
+            assertEquals(100 + count, some.excerpt().readLong(8));
+            count++;
+        }
+        assertEquals(100, count);
+
+        // a cursor which caught up carries on when more is written.
+        for (int i = 0; i < 10000; i++)
+            assertTrue(tail.next());
+        assertFalse(tail.next());
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(10001);
+        excerpt.finish();
+        assertTrue(tail.next());
+        assertEquals(10001, tail.excerpt().readLong());
+        tsc.close();
+    }
+
+    @Test
+    public void reverseAndStrideCursors() throws IOException {
+        String basePath = "/tmp/deleteme.reverseict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 10000; i++) {
+            excerpt.startExcerpt(16 + (i & 63));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+
+        // reverse over a range past the end only reads what was written.
+        RangeCursor reverse = tsc.createReverseRange(0, Long.MAX_VALUE);
+        assertEquals(10000, reverse.remaining());
+        for (int i = 9999; i >= 0; i--) {
+            assertTrue(reverse.next());
+            Excerpt e = reverse.excerpt();
+            assertEquals(i, e.index());
+            assertEquals(i + 1, e.readLong());
+            assertEquals(i, e.readLong());
+        }
+        assertFalse(reverse.next());
+        assertEquals(0, reverse.remaining());
+
+        RangeCursor stride = tsc.createRange(10, 10000, 7);
+        assertEquals((10000 - 10 + 6) / 7, stride.remaining());
+        int count = 0;
+        while (stride.next()) {
+            assertEquals(10 + count * 7, stride.excerpt().readLong(8));
+            count++;
+        }
+        assertEquals((10000 - 10 + 6) / 7, count);
+
+        RangeCursor back = tsc.createRange(100, 200, -3);
+        count = 0;
+        while (back.next()) {
+            assertEquals(199 - count * 3, back.excerpt().readLong(8));
+            count++;
+        }
+        assertEquals(34, count);
+        tsc.close();
+    }
+
+    @Test
+    public void maxMappedBuffers() throws IOException {
+        String basePath = "/tmp/deleteme.lruict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 10000; i++) {
+            excerpt.startExcerpt(64);
+            excerpt.writeLong(i + 1);
+            excerpt.position(56);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(true);
+        tsc.maxMappedBuffers(4);
+        Excerpt excerpt1 = tsc.createExcerpt();
+        Excerpt excerpt2 = tsc.createExcerpt();
+        // excerpt1 stays at the start while excerpt2 replays, so its buffer mustn't be unmapped.
+        assertTrue(excerpt1.index(0));
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(excerpt2.index(i));
+            assertEquals(i + 1, excerpt2.readLong());
+            assertEquals(i, excerpt2.readLong(56));
+            assertTrue(tsc.mappedDataBuffers() <= 4);
+        }
+        assertEquals(1, excerpt1.readLong());
+        assertEquals(0, excerpt1.readLong(56));
+        // random access.
+        Random rand = new Random(1);
+        for (int j = 0; j < 10000; j++) {
+            int i = rand.nextInt(10000);
+            assertTrue(excerpt2.index(i));
+            assertEquals(i, excerpt2.readLong(56));
+        }
+        tsc.close();
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        String basePath = "/tmp/deleteme.crict";
+        deleteNow(basePath);
+        final IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.useUnsafe(true);
+        deleteOnExit(basePath);
+
+        final int runs = 50000;
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = tsc.createExcerpt();
+                    for (int i = 0; i < runs; i++) {
+                        while (!excerpt.index(i)) ;
+                        if (excerpt.readLong() != i + 1 || excerpt.readLong() != -i)
+                            errors.incrementAndGet();
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(16);
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(-i);
+            excerpt.finish();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        assertEquals(0, errors.get());
+        tsc.close();
+    }
+
+    @Test
+    public void reopenWithHeader() throws IOException {
+        String basePath = "/tmp/deleteme.hict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 1000; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i + 1);
+            excerpt.finish();
+        }
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1000, tsc.size());
+        tsc.close();
+
+        // the header lags the index.
+        ChronicleHeader header = new ChronicleHeader(basePath + ".header");
+        header.reset(900, 0);
+        header.close();
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1000, tsc.size());
+        tsc.close();
+
+        // the header is ahead of the index.
+        header = new ChronicleHeader(basePath + ".header");
+        header.reset(5000, 0);
+        header.close();
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1000, tsc.size());
+        tsc.close();
+
+        // no header.
+        assertTrue(new File(basePath + ".header").delete());
+        tsc = new IndexedChronicle(basePath, 12);
+        assertEquals(1000, tsc.size());
+        excerpt = tsc.createExcerpt();
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(1001);
+        excerpt.finish();
+        assertTrue(excerpt.index(999));
+        assertEquals(1000, excerpt.readLong());
+        assertTrue(excerpt.index(1000));
+        assertEquals(1001, excerpt.readLong());
+        tsc.close();
+    }
+
+    /**
+     * Each IndexedChronicle has its own mappings of the files, as another process would.
+     */
+    @Test
+    public void multiWriterSharedFiles() throws Exception {
+        String basePath = "/tmp/deleteme.mpict";
+        deleteNow(basePath);
+        final IndexedChronicle[] chronicles = new IndexedChronicle[2];
+        for (int c = 0; c < chronicles.length; c++) {
+            chronicles[c] = new IndexedChronicle(basePath, 12);
+            chronicles[c].useUnsafe(true);
+            chronicles[c].multiWriter(true);
+        }
+        deleteOnExit(basePath);
+
+        final int runs = 20000;
+        Thread[] writers = new Thread[chronicles.length];
+        for (int c = 0; c < chronicles.length; c++) {
+            final int id = c;
+            writers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Excerpt excerpt = chronicles[id].createExcerpt();
+                    for (int i = 1; i <= runs; i++) {
+                        excerpt.startExcerpt(16 + (i & 31));
+                        excerpt.writeLong(id + 1);
+                        excerpt.writeLong(i);
+                        excerpt.finish();
+                    }
+                }
+            });
+            writers[c].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        assertEquals(chronicles.length * runs, chronicles[0].size());
+        assertEquals(chronicles.length * runs, chronicles[1].size());
+
+        long[] last = new long[chronicles.length];
+        Excerpt excerpt = chronicles[1].createExcerpt();
+        for (int i = 0; i < chronicles.length * runs; i++) {
+            assertTrue(excerpt.index(i));
+            int id = (int) excerpt.readLong() - 1;
+            long seq = excerpt.readLong();
+            assertEquals(last[id] + 1, seq);
+            last[id] = seq;
+        }
+        assertFalse(excerpt.index(chronicles.length * runs));
+        for (IndexedChronicle chronicle : chronicles)
+            chronicle.close();
+    }
+
+    @Test
+    public void seekToTime() throws IOException, InterruptedException {
+        String basePath = "/tmp/deleteme.timeict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        tsc.timestamps(true);
+        assertEquals(0, tsc.seek(System.currentTimeMillis() * 1000000L));
+
+        Excerpt excerpt = tsc.createExcerpt();
+        long[] times = new long[5];
+        for (int t = 0; t < times.length; t++) {
+            Thread.sleep(2);
+            times[t] = TimeIndex.currentTimeNanos();
+            for (int i = 0; i < 1000 * (t + 1); i++) {
+                excerpt.startExcerpt(8);
+                excerpt.writeLong(i);
+                excerpt.finish();
+            }
+        }
+        long size = tsc.size();
+        for (long i = 1; i < size; i++)
+            assertTrue(tsc.timestamp(i - 1) <= tsc.timestamp(i));
+        for (int t = 0, start = 0; t < times.length; start += 1000 * ++t)
+            assertEquals(start, tsc.seek(times[t]));
+        assertEquals(0, tsc.seek(0));
+        assertEquals(size, tsc.seek(Long.MAX_VALUE));
+        // excerpts started in the same nanosecond seek to the first of them.
+        long found = tsc.seek(tsc.timestamp(size / 2));
+        assertTrue(found <= size / 2);
+        assertEquals(tsc.timestamp(size / 2), tsc.timestamp(found));
+        tsc.close();
+
+        // the timestamps are kept when reopened.
+        IndexedChronicle tsc2 = new IndexedChronicle(basePath, 12);
+        assertTrue(tsc2.timestamps());
+        assertEquals(3000, tsc2.seek(times[2]));
+        try {
+            tsc2.timestamps(false);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        tsc2.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+        new File(basePath + ".header").delete();
+        new File(basePath + ".time").delete();
+    }
+
     private static void deleteOnExit(String basePath) {
         new File(basePath + ".data").deleteOnExit();
         new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+        new File(basePath + ".time").deleteOnExit();
     }
 }
@@ -72,5 +72,6 @@ public class IntIndexedChronicleTest {
     private static void deleteOnExit(String basePath) {
         new File(basePath + ".data").deleteOnExit();
         new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class ParallelScanTest {
+    @Test
+    public void parallelSum() throws IOException, InterruptedException {
+        String basePath = "/tmp/deleteme.scan";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Excerpt excerpt = tsc.createExcerpt();
+        int runs = 100000;
+        for (int i = 0; i < runs; i++) {
+            excerpt.startExcerpt(16 + (i & 15));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+
+        // the sum of the values and the first and last index, to check the ranges are combined in order.
+        ExcerptReducer<long[]> reducer = new ExcerptReducer<long[]>() {
+            @Override
+            public long[] initial() {
+                return new long[]{0, -1, -1};
+            }
+
+            @Override
+            public long[] accumulate(long[] result, Excerpt excerpt) {
+                assertEquals(excerpt.index(), excerpt.readLong(8));
+                result[0] += excerpt.readLong(0);
+                if (result[1] < 0)
+                    result[1] = excerpt.index();
+                assertTrue(result[2] < excerpt.index());
+                result[2] = excerpt.index();
+                return result;
+            }
+
+            @Override
+            public long[] combine(long[] earlier, long[] later) {
+                assertEquals(earlier[2] + 1, later[1]);
+                return new long[]{earlier[0] + later[0], earlier[1], later[2]};
+            }
+        };
+        long[] result = ParallelScan.scan(tsc, 0, Long.MAX_VALUE, reducer);
+        assertEquals((long) runs * (runs + 1) / 2, result[0]);
+        assertEquals(0, result[1]);
+        assertEquals(runs - 1, result[2]);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        result = ParallelScan.scan(executor, 7, tsc, 1000, 2000, reducer);
+        assertEquals(1000, result[1]);
+        assertEquals(1999, result[2]);
+        assertEquals((1001 + 2000) * 1000 / 2, result[0]);
+        executor.shutdown();
+        tsc.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+        new File(basePath + ".header").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+    }
+}
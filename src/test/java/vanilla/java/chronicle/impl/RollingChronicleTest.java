@@ -0,0 +1,352 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class RollingChronicleTest {
+    static class TestRollingChronicle extends RollingChronicle {
+        long time = 0;
+
+        TestRollingChronicle(String basePath, long time) throws IOException {
+            super(basePath, 12, DAILY);
+            this.time = time;
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
+    @Test
+    public void rollingCycles() throws IOException {
+        String basePath = "/tmp/deleteme.rolling";
+        deleteNow(basePath);
+        long day = 15000;
+        TestRollingChronicle rc = new TestRollingChronicle(basePath, day * RollingChronicle.DAILY);
+        assertEquals(0, rc.size());
+        Excerpt excerpt = rc.createExcerpt();
+        // write days 15000, 15001 and 15003.
+        for (int d : new int[]{0, 1, 3}) {
+            rc.time = (day + d) * RollingChronicle.DAILY + d * 1000;
+            for (int i = 0; i < 10; i++) {
+                excerpt.startExcerpt(16);
+                excerpt.writeLong(d * 100 + i + 1);
+                excerpt.writeLong(excerpt.index());
+                excerpt.finish();
+            }
+            assertEquals(RollingChronicle.index(day + d, 10), rc.size());
+        }
+        assertTrue(new File(basePath, rc.cycleName(day) + ".index").exists());
+        assertEquals("20110129", rc.cycleName(day + 3));
+        deleteOnExit(basePath);
+        rc.close();
+
+        rc = new TestRollingChronicle(basePath, (day + 3) * RollingChronicle.DAILY);
+        rc.maxOpenCycles(1);
+        assertEquals(RollingChronicle.index(day + 3, 10), rc.size());
+        SortedSet<Long> cycles = rc.cycles();
+        assertEquals(3, cycles.size());
+        assertEquals(day, (long) cycles.first());
+
+        Excerpt excerpt2 = rc.createExcerpt();
+        int count = 0;
+        for (int d : new int[]{0, 1, 3}) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(excerpt2.nextIndex());
+                assertEquals(RollingChronicle.index(day + d, i), excerpt2.index());
+                assertEquals(d * 100 + i + 1, excerpt2.readLong());
+                assertEquals(excerpt2.index(), excerpt2.readLong());
+                excerpt2.finish();
+                count++;
+            }
+        }
+        assertEquals(30, count);
+        assertFalse(excerpt2.nextIndex());
+        assertTrue(rc.openCycles() <= 2);
+
+        // random access to an earlier cycle.
+        assertTrue(excerpt2.index(RollingChronicle.index(day + 1, 5)));
+        assertEquals(106, excerpt2.readLong());
+        assertFalse(excerpt2.index(RollingChronicle.index(day + 2, 0)));
+
+        // continue writing the last cycle.
+        Excerpt excerpt3 = rc.createExcerpt();
+        excerpt3.startExcerpt(16);
+        excerpt3.writeLong(311);
+        excerpt3.writeLong(0);
+        excerpt3.finish();
+        assertEquals(RollingChronicle.index(day + 3, 10), excerpt3.index());
+        rc.close();
+    }
+
+    @Test
+    public void minutelyCycles() throws IOException {
+        String basePath = "/tmp/deleteme.minutely";
+        deleteNow(basePath);
+        // minutes since 1970 don't fit in the cycle bits.
+        try {
+            new RollingChronicle(basePath, 12, RollingChronicle.MINUTELY);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // count cycles from 2020-01-01.
+        long epoch = 18262 * RollingChronicle.DAILY;
+        final long[] time = {epoch + 5000000 * RollingChronicle.MINUTELY};
+        RollingChronicle rc = new RollingChronicle(basePath, 12, RollingChronicle.MINUTELY, ByteOrder.nativeOrder(), epoch) {
+            @Override
+            protected long currentTimeMillis() {
+                return time[0];
+            }
+        };
+        deleteOnExit(basePath);
+        long minute = 5000000;
+        assertEquals(minute, rc.currentCycle());
+        Excerpt excerpt = rc.createExcerpt();
+        for (int m : new int[]{0, 1, 3}) {
+            time[0] = epoch + (minute + m) * RollingChronicle.MINUTELY;
+            for (int i = 0; i < 10; i++) {
+                excerpt.startExcerpt(16);
+                excerpt.writeLong(m * 100 + i + 1);
+                excerpt.writeLong(excerpt.index());
+                excerpt.finish();
+                assertTrue(excerpt.index() > 0);
+                assertEquals(minute + m, RollingChronicle.cycleOf(excerpt.index()));
+                assertEquals(i, RollingChronicle.indexInCycle(excerpt.index()));
+            }
+        }
+        assertEquals("202907", rc.cycleName(minute).substring(0, 6));
+        assertTrue(new File(basePath, rc.cycleName(minute + 3) + ".index").exists());
+        assertEquals(3, rc.cycles().size());
+        assertEquals(minute, (long) rc.cycles().first());
+
+        Excerpt reader = rc.createExcerpt();
+        for (int m : new int[]{0, 1, 3}) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(reader.nextIndex());
+                assertEquals(RollingChronicle.index(minute + m, i), reader.index());
+                assertEquals(m * 100 + i + 1, reader.readLong());
+                assertEquals(reader.index(), reader.readLong());
+            }
+        }
+        assertFalse(reader.nextIndex());
+        rc.close();
+    }
+
+    @Test
+    public void retention() throws IOException {
+        String basePath = "/tmp/deleteme.retention";
+        deleteNow(basePath);
+        long day = 15000;
+        TestRollingChronicle rc = new TestRollingChronicle(basePath, day * RollingChronicle.DAILY);
+        Excerpt reader = rc.createExcerpt();
+        Excerpt excerpt = rc.createExcerpt();
+        for (int d = 0; d < 3; d++) {
+            rc.time = (day + d) * RollingChronicle.DAILY;
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(d + 1);
+            excerpt.finish();
+        }
+        rc.time = (day + 3) * RollingChronicle.DAILY;
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(4);
+        excerpt.finish();
+        assertEquals(4, rc.cycles().size());
+
+        // the reader holds on to the first cycle.
+        assertTrue(reader.index(RollingChronicle.index(day, 0)));
+        rc.maxRetentionAge(RollingChronicle.DAILY);
+        assertEquals(0, rc.applyRetention());
+        assertEquals(4, rc.cycles().size());
+
+        // once the reader moves on, the two oldest cycles can go.
+        assertTrue(reader.nextIndex());
+        assertEquals(RollingChronicle.index(day + 1, 0), reader.index());
+        assertTrue(reader.nextIndex());
+        assertEquals(2, rc.applyRetention());
+        assertEquals(day + 2, (long) rc.cycles().first());
+        assertFalse(new File(basePath, rc.cycleName(day) + ".data").exists());
+        assertEquals(3, reader.readLong());
+        // indexes of the remaining cycles are unchanged.
+        assertTrue(excerpt.index(RollingChronicle.index(day + 3, 0)));
+        assertEquals(4, excerpt.readLong());
+        assertFalse(excerpt.index(RollingChronicle.index(day, 0)));
+        assertEquals(RollingChronicle.index(day + 2, 0), rc.firstIndex());
+
+        // size based retention keeps at least the cycle being written.
+        rc.maxRetentionSize(0);
+        reader.index(RollingChronicle.index(day + 3, 0));
+        assertEquals(1, rc.applyRetention());
+        assertEquals(1, rc.cycles().size());
+        deleteOnExit(basePath);
+        rc.close();
+    }
+
+    @Test
+    public void backgroundRetention() throws Exception {
+        String basePath = "/tmp/deleteme.background-retention";
+        deleteNow(basePath);
+        long day = 15000;
+        TestRollingChronicle rc = new TestRollingChronicle(basePath, day * RollingChronicle.DAILY);
+        rc.maxRetentionAge(RollingChronicle.DAILY);
+        Excerpt excerpt = rc.createExcerpt();
+        for (int d = 0; d < 3; d++) {
+            rc.time = (day + d) * RollingChronicle.DAILY;
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(d + 1);
+            excerpt.finish();
+        }
+        // starting the third cycle deletes the first, but not in the writer's thread.
+        for (int i = 0; i < 100 && rc.cycles().first() == day; i++)
+            Thread.sleep(10);
+        assertEquals(day + 1, (long) rc.cycles().first());
+        assertFalse(new File(basePath, rc.cycleName(day) + ".data").exists());
+        deleteOnExit(basePath);
+        rc.close();
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        String basePath = "/tmp/deleteme.compaction";
+        deleteNow(basePath);
+        long day = 15000;
+        TestRollingChronicle rc = new TestRollingChronicle(basePath, day * RollingChronicle.DAILY);
+        Excerpt reader = rc.createExcerpt();
+        Excerpt excerpt = rc.createExcerpt();
+        for (int d = 0; d < 3; d++) {
+            rc.time = (day + d) * RollingChronicle.DAILY;
+            for (int i = 0; i < 1000; i++) {
+                excerpt.startExcerpt(16);
+                excerpt.writeLong(d + 1);
+                excerpt.writeLong(i);
+                excerpt.finish();
+            }
+        }
+        rc.time = (day + 3) * RollingChronicle.DAILY;
+        // the reader holds on to the first cycle and the writer to the last.
+        assertTrue(reader.index(RollingChronicle.index(day, 0)));
+        assertEquals(1, rc.compactCycles());
+        assertTrue(new File(basePath, rc.cycleName(day + 1) + ".cdata").exists());
+        assertFalse(new File(basePath, rc.cycleName(day + 1) + ".data").exists());
+        assertTrue(reader.index(RollingChronicle.index(day + 2, 0)));
+        assertEquals(1, rc.compactCycles());
+        assertEquals(0, rc.compactCycles());
+
+        for (int d = 0; d < 3; d++) {
+            assertTrue(reader.index(RollingChronicle.index(day + d, 0)));
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(d + 1, reader.readLong());
+                assertEquals(i, reader.readLong());
+                if (i < 999 || d < 2)
+                    assertTrue(reader.nextIndex());
+            }
+        }
+        assertFalse(reader.nextIndex());
+        rc.close();
+
+        // compressed cycles are read back on restart and writing carries on in a new cycle.
+        rc = new TestRollingChronicle(basePath, (day + 3) * RollingChronicle.DAILY);
+        assertEquals(RollingChronicle.index(day + 2, 1000), rc.size());
+        excerpt = rc.createExcerpt();
+        assertTrue(excerpt.index(RollingChronicle.index(day + 1, 999)));
+        assertEquals(2, excerpt.readLong());
+        assertEquals(999, excerpt.readLong());
+        excerpt.startExcerpt(8);
+        excerpt.writeLong(4);
+        excerpt.finish();
+        assertEquals(RollingChronicle.index(day + 3, 0), excerpt.index());
+        deleteOnExit(basePath);
+        rc.close();
+    }
+
+    @Test
+    public void concurrentReadersAcrossCycles() throws Exception {
+        String basePath = "/tmp/deleteme.rolling-readers";
+        deleteNow(basePath);
+        final long day = 15000;
+        final int days = 6, runs = 100;
+        final TestRollingChronicle rc = new TestRollingChronicle(basePath, day * RollingChronicle.DAILY);
+        rc.useUnsafe(true);
+        Excerpt excerpt = rc.createExcerpt();
+        for (int d = 0; d < days; d++) {
+            rc.time = (day + d) * RollingChronicle.DAILY;
+            for (int i = 0; i < runs; i++) {
+                excerpt.startExcerpt(16);
+                excerpt.writeLong(d + 1);
+                excerpt.writeLong(i);
+                excerpt.finish();
+            }
+        }
+        // each thread opening a cycle closes the others which are not being read.
+        rc.maxOpenCycles(1);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            final int seed = t;
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    Excerpt excerpt = rc.createExcerpt();
+                    for (int n = 0; n < 2000; n++) {
+                        int d = random.nextInt(days), i = random.nextInt(runs);
+                        if (!excerpt.index(RollingChronicle.index(day + d, i))
+                                || excerpt.readLong() != d + 1 || excerpt.readLong() != i)
+                            errors.incrementAndGet();
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        assertEquals(0, errors.get());
+        deleteOnExit(basePath);
+        rc.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        File[] files = new File(basePath).listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        // files are deleted in the reverse order they are registered.
+        new File(basePath).deleteOnExit();
+        File[] files = new File(basePath).listFiles();
+        if (files != null)
+            for (File file : files)
+                file.deleteOnExit();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class SpanningExcerptTest {
+    @Test
+    public void spanningEntries() throws IOException {
+        String basePath = "/tmp/deleteme.seict";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        tsc.spanBuffers(true);
+        deleteOnExit(basePath);
+
+        Excerpt excerpt = tsc.createExcerpt();
+        assertTrue(excerpt instanceof SpanningExcerpt);
+        // an odd size means values straddle the end of the buffers.
+        for (int i = 0; i < 1000; i++) {
+            excerpt.startExcerpt(29);
+            excerpt.writeLong(i + 1);
+            excerpt.writeInt(i);
+            excerpt.writeShort(i);
+            excerpt.writeDouble(i / 10.0);
+            excerpt.writeChar('a' + i % 26);
+            excerpt.writeFloat(i);
+            excerpt.writeByte(i);
+            excerpt.finish();
+        }
+        // larger than a buffer.
+        byte[] bytes = new byte[100 * 1000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (i * 7 + 1);
+        excerpt.startExcerpt(bytes.length);
+        excerpt.write(bytes);
+        excerpt.finish();
+        assertEquals(29 * 1000 + bytes.length, tsc.writePosition());
+        tsc.close();
+
+        tsc = new IndexedChronicle(basePath, 12);
+        assertTrue(tsc.spanBuffers());
+        excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("i=" + i, excerpt.index(i));
+            assertEquals(29, excerpt.capacity());
+            assertEquals(i + 1, excerpt.readLong());
+            assertEquals(i, excerpt.readInt());
+            assertEquals((short) i, excerpt.readShort());
+            assertEquals(i / 10.0, excerpt.readDouble());
+            assertEquals('a' + i % 26, excerpt.readChar());
+            assertEquals((float) i, excerpt.readFloat());
+            assertEquals((byte) i, excerpt.readByte());
+            assertEquals(0, excerpt.remaining());
+            assertEquals(i, excerpt.readInt(8));
+            excerpt.finish();
+        }
+        assertTrue(excerpt.index(1000));
+        assertEquals(bytes.length, excerpt.capacity());
+        byte[] bytes2 = new byte[bytes.length];
+        excerpt.readFully(bytes2);
+        for (int i = 0; i < bytes.length; i++)
+            if (bytes[i] != bytes2[i])
+                assertEquals(bytes[i], bytes2[i]);
+        assertFalse(excerpt.index(1001));
+
+        try {
+            tsc.spanBuffers(false);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        tsc.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+        new File(basePath + ".header").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.impl;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class SparseIndexedChronicleTest {
+    @Test
+    public void writeAndRead() throws IOException {
+        String basePath = "/tmp/deleteme.sparse";
+        deleteNow(basePath);
+        SparseIndexedChronicle chronicle = new SparseIndexedChronicle(basePath, 12, 16);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        assertFalse(excerpt.index(0));
+        int runs = 20000;
+        for (int i = 0; i < runs; i++) {
+            // vary the size so excerpts are padded to the end of buffers.
+            excerpt.startExcerpt(16 + (i % 51));
+            excerpt.writeLong(i + 1);
+            excerpt.writeLong(i);
+            excerpt.finish();
+        }
+        assertEquals(runs, chronicle.size());
+        assertFalse(excerpt.index(runs));
+
+        // in order.
+        Excerpt reader = chronicle.createExcerpt();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(reader.nextIndex());
+            assertEquals(i, reader.index());
+            assertTrue(reader.capacity() >= 16);
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+        }
+        assertFalse(reader.nextIndex());
+
+        // at random.
+        Random random = new Random(1);
+        for (int n = 0; n < 10000; n++) {
+            int i = random.nextInt(runs);
+            assertTrue(reader.index(i));
+            assertEquals(i + 1, reader.readLong());
+            assertEquals(i, reader.readLong());
+        }
+        chronicle.close();
+
+        // an index entry every 16 excerpts, rounded up to a whole index buffer.
+        assertTrue(new File(basePath + ".index").length() <= 8 * runs / 16 + 4096);
+
+        SparseIndexedChronicle chronicle2 = new SparseIndexedChronicle(basePath, 12, 16);
+        assertEquals(runs, chronicle2.size());
+        Excerpt excerpt2 = chronicle2.createExcerpt();
+        excerpt2.startExcerpt(8);
+        excerpt2.writeLong(runs + 1);
+        excerpt2.finish();
+        assertTrue(excerpt2.index(runs));
+        assertEquals(runs + 1, excerpt2.readLong());
+        assertTrue(excerpt2.index(runs - 1));
+        assertEquals(runs, excerpt2.readLong());
+        chronicle2.close();
+    }
+
+    @Test
+    public void clear() throws IOException {
+        String basePath = "/tmp/deleteme.sparseclear";
+        deleteNow(basePath);
+        SparseIndexedChronicle chronicle = new SparseIndexedChronicle(basePath, 12, 4);
+        deleteOnExit(basePath);
+        Excerpt excerpt = chronicle.createExcerpt();
+        for (int i = 0; i < 100; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i + 1);
+            excerpt.finish();
+        }
+        chronicle.clear();
+        assertFalse(excerpt.index(0));
+        for (int i = 0; i < 10; i++) {
+            excerpt.startExcerpt(12);
+            excerpt.writeLong(-i - 1);
+            excerpt.writeInt(i);
+            excerpt.finish();
+        }
+        assertFalse(excerpt.index(10));
+        assertTrue(excerpt.index(9));
+        assertEquals(-10, excerpt.readLong());
+        chronicle.close();
+
+        SparseIndexedChronicle chronicle2 = new SparseIndexedChronicle(basePath, 12, 4);
+        assertEquals(10, chronicle2.size());
+        chronicle2.close();
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2011 Peter Lawrey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vanilla.java.chronicle.tailer;
+
+import org.junit.Test;
+import vanilla.java.chronicle.Excerpt;
+import vanilla.java.chronicle.impl.IndexedChronicle;
+import vanilla.java.chronicle.impl.RollingChronicle;
+import vanilla.java.chronicle.impl.Wakeup;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.*;
+
+/**
+ * @author peter.lawrey
+ */
+public class TailerTest {
+    @Test
+    public void tailWhileWriting() throws Exception {
+        doTailWhileWriting(new BusySpinWaitStrategy());
+        doTailWhileWriting(new YieldingWaitStrategy(10));
+        doTailWhileWriting(new ParkingWaitStrategy(10 * 1000));
+        doTailWhileWriting(new BackoffWaitStrategy(10, 10, 1000, 100 * 1000));
+    }
+
+    private void doTailWhileWriting(WaitStrategy waitStrategy) throws Exception {
+        String basePath = "/tmp/deleteme.tailer";
+        deleteNow(basePath);
+        final IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        final int runs = 1000;
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Excerpt excerpt = tsc.createExcerpt();
+                for (int i = 0; i < runs; i++) {
+                    excerpt.startExcerpt(8);
+                    excerpt.writeLong(i + 1);
+                    excerpt.finish();
+                    if (i % 100 == 0)
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                }
+            }
+        });
+        Tailer tailer = new Tailer(tsc, waitStrategy);
+        assertFalse(tailer.nextIndex());
+        writer.start();
+        for (int i = 0; i < runs; i++) {
+            Excerpt excerpt = tailer.next();
+            assertEquals(i, excerpt.index());
+            assertEquals(i + 1, excerpt.readLong());
+        }
+        assertEquals(runs, tailer.index());
+        assertEquals(runs, tailer.reads());
+        assertFalse(tailer.next(1000 * 1000));
+        writer.join();
+
+        assertTrue(waitStrategy.toString(), waitStrategy.idles() > 0);
+        assertEquals(waitStrategy.idles(), waitStrategy.spins() + waitStrategy.yields() + waitStrategy.parks());
+        tsc.close();
+    }
+
+    @Test
+    public void wakeupAcrossChronicles() throws Exception {
+        String basePath = "/tmp/deleteme.wakeup";
+        deleteNow(basePath);
+        final IndexedChronicle writer = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        // a second Chronicle on the same files, as another process would have.
+        IndexedChronicle reader = new IndexedChronicle(basePath, 12);
+        NotifyingWaitStrategy waitStrategy = new NotifyingWaitStrategy(reader, 10, 10 * 1000 * 1000 * 1000L);
+        Tailer tailer = new Tailer(reader, waitStrategy);
+        final int runs = 20;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Excerpt excerpt = writer.createExcerpt();
+                for (int i = 0; i < runs; i++) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    excerpt.startExcerpt(8);
+                    excerpt.writeLong(i + 1);
+                    excerpt.finish();
+                }
+            }
+        });
+        long start = System.nanoTime();
+        thread.start();
+        for (int i = 0; i < runs; i++)
+            assertEquals(i + 1, tailer.next().readLong());
+        long time = System.nanoTime() - start;
+        thread.join();
+        // without the wakeups each excerpt would wait for the 10 second timeout.
+        assertTrue("time " + time / 1000000 + " ms", time < 5 * 1000 * 1000 * 1000L);
+        assertTrue(waitStrategy.toString(), waitStrategy.parks() > 0);
+        assertTrue(waitStrategy.wakeups() > 0);
+        waitStrategy.close();
+        reader.close();
+        writer.close();
+    }
+
+    @Test
+    public void tailAcrossCycles() throws IOException {
+        String basePath = "/tmp/deleteme.tailer-rolling";
+        File[] files = new File(basePath).listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        final long[] time = {15000 * RollingChronicle.DAILY};
+        RollingChronicle rc = new RollingChronicle(basePath, 12, RollingChronicle.DAILY) {
+            @Override
+            protected long currentTimeMillis() {
+                return time[0];
+            }
+        };
+        Tailer tailer = new Tailer(rc, new BusySpinWaitStrategy());
+        Excerpt excerpt = rc.createExcerpt();
+        for (int d = 0; d < 3; d++) {
+            time[0] = (15000 + d) * RollingChronicle.DAILY;
+            for (int i = 0; i < 3; i++) {
+                excerpt.startExcerpt(8);
+                excerpt.writeLong(d * 10 + i + 1);
+                excerpt.finish();
+            }
+            // the tailer catches up before the next cycle starts.
+            for (int i = 0; i < 3; i++) {
+                assertTrue(tailer.nextIndex());
+                assertEquals(RollingChronicle.index(15000 + d, i), tailer.excerpt().index());
+                assertEquals(d * 10 + i + 1, tailer.excerpt().readLong());
+            }
+            assertFalse(tailer.nextIndex());
+        }
+        assertEquals(9, tailer.reads());
+        rc.close();
+        files = new File(basePath).listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        new File(basePath).delete();
+    }
+
+    @Test
+    public void wakeupOnlyWhenAsleep() throws IOException {
+        String basePath = "/tmp/deleteme.wakeup-asleep";
+        deleteNow(basePath);
+        IndexedChronicle tsc = new IndexedChronicle(basePath, 12);
+        deleteOnExit(basePath);
+        Wakeup wakeup = tsc.createWakeup();
+        long sequence = wakeup.sequence();
+        Excerpt excerpt = tsc.createExcerpt();
+        for (int i = 0; i < 10; i++) {
+            excerpt.startExcerpt(8);
+            excerpt.writeLong(i + 1);
+            excerpt.finish();
+        }
+        // an excerpt finished since the reader last checked.
+        assertTrue(wakeup.await(sequence, 10 * 1000 * 1000L));
+        assertEquals(0, wakeup.wakeups());
+        // nothing was sent while the reader was awake, so it sleeps until the timeout.
+        long start = System.nanoTime();
+        assertFalse(wakeup.await(wakeup.sequence(), 50 * 1000 * 1000L));
+        assertTrue(System.nanoTime() - start >= 40 * 1000 * 1000L);
+        assertEquals(0, wakeup.wakeups());
+        wakeup.close();
+        tsc.close();
+    }
+
+    @Test
+    public void backoff() {
+        BackoffWaitStrategy backoff = new BackoffWaitStrategy(2, 3, 1, 1000);
+        for (int i = 0; i < 100; i++)
+            backoff.idle(i);
+        assertEquals(100, backoff.idles());
+        assertEquals(2, backoff.spins());
+        assertEquals(3, backoff.yields());
+        assertEquals(95, backoff.parks());
+    }
+
+    private static void deleteNow(String basePath) {
+        new File(basePath + ".data").delete();
+        new File(basePath + ".index").delete();
+        new File(basePath + ".header").delete();
+    }
+
+    private static void deleteOnExit(String basePath) {
+        new File(basePath + ".data").deleteOnExit();
+        new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
+    }
+}
@@ -25,6 +25,7 @@ public enum GlobalSettings {
     ;
     public static final int DATA_BIT_SIZE_HINT = 24;
     public static final boolean USE_UNSAFE = Boolean.parseBoolean(System.getProperty("test.unsafe", "true"));
+    public static final boolean BACKGROUND_MAPPING = Boolean.parseBoolean(System.getProperty("test.mapping", "false"));
     public static final String BASE_DIR = System.getProperty("test.dir", System.getProperty("java.io.tmpdir", "/tmp")) + "/deleteme.iictm.";
     public static final int RUNS = Integer.getInteger("test.size", 30) * 1000 * 1000;
     public static final int WARMUP = Integer.getInteger("test.warmup", 12 * 1000);
@@ -32,5 +33,6 @@ public enum GlobalSettings {
     public static void deleteOnExit(String basePath) {
         new File(basePath + ".data").deleteOnExit();
         new File(basePath + ".index").deleteOnExit();
+        new File(basePath + ".header").deleteOnExit();
     }
 }
@@ -43,6 +43,7 @@ public class IndexedChronicleLatencyMain {
 
         IndexedChronicle tsc = new IndexedChronicle(basePath, DATA_BIT_SIZE_HINT);
         tsc.useUnsafe(USE_UNSAFE);
+        tsc.backgroundMapping(BACKGROUND_MAPPING);
         IndexedChronicle tsc2 = new IndexedChronicle(basePath2, DATA_BIT_SIZE_HINT);
         tsc2.useUnsafe(USE_UNSAFE);
         tsc.clear();
@@ -59,6 +60,7 @@ public class IndexedChronicleLatencyMain {
                     tsc.useUnsafe(USE_UNSAFE);
                     final IndexedChronicle tsc2 = new IndexedChronicle(basePath2, DATA_BIT_SIZE_HINT);
                     tsc2.useUnsafe(USE_UNSAFE);
+                    tsc2.backgroundMapping(BACKGROUND_MAPPING);
                     tsc2.clear();
 
                     Excerpt excerpt = tsc.createExcerpt();